@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MutationJournalTest {
+    private static final int MODULES = 3;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A compaction copies the registry after it has switched to a new segment. A student
+     * changed and then removed in between is missing from the snapshot, while the new segment
+     * still holds its RENAME and MARKS records.
+     */
+    @Test
+    void replaySkipsChangesToStudentsRemovedBeforeTheSnapshot() throws IOException {
+        int removed = IdIndex.keyOf("w1000001");
+        int kept = IdIndex.keyOf("w1000002");
+
+        // Both students are already in the snapshot's past, so segment 0 has no ADD for them
+        StudentRegistry registry = new StudentRegistry(16, MODULES);
+        registry.add(removed, "Ada Lovelace", new double[] {50, 60, 70});
+        registry.add(kept, "Alan Turing", new double[] {40, 45, 50});
+        try (MutationJournal journal = MutationJournal.open(directory, registry,
+                MutationJournal.FsyncPolicy.ALWAYS, Long.MAX_VALUE)) {
+            registry.setModuleMarks(removed, new double[] {90, 90, 90});
+            registry.setStudentName(removed, "Ada King");
+            registry.remove("w1000001");
+            registry.setStudentName(kept, "Alan M. Turing");
+        }
+
+        // The snapshot the compaction took once the removal had happened
+        StudentRegistry late = new StudentRegistry(16, MODULES);
+        late.add(kept, "Alan Turing", new double[] {40, 45, 50});
+        StudentColumns copy = late.copyColumns();
+        StudentSnapshot.write(copy, copy.rows(), directory.resolve(MutationJournal.SNAPSHOT_NAME), 0);
+
+        StudentRegistry restored = new StudentRegistry(16, MODULES);
+        try (MutationJournal journal = MutationJournal.open(directory, restored,
+                MutationJournal.FsyncPolicy.ALWAYS, Long.MAX_VALUE)) {
+            assertEquals(1, restored.size());
+            assertFalse(restored.contains("w1000001"));
+            assertTrue(restored.contains("w1000002"));
+            assertEquals("Alan M. Turing", restored.find("w1000002").getStudentName());
+        }
+    }
+
+    @Test
+    void replayIgnoresAnAddOfAStudentTheSnapshotAlreadyHolds() throws IOException {
+        int key = IdIndex.keyOf("w2000001");
+        StudentRegistry registry = new StudentRegistry(16, MODULES);
+        try (MutationJournal journal = MutationJournal.open(directory, registry,
+                MutationJournal.FsyncPolicy.ALWAYS, Long.MAX_VALUE)) {
+            registry.add(key, "Grace Hopper", new double[] {70, 70, 70});
+            registry.setModuleMarks(key, new double[] {80, 80, 80});
+        }
+        StudentColumns copy = registry.copyColumns();
+        StudentSnapshot.write(copy, copy.rows(), directory.resolve(MutationJournal.SNAPSHOT_NAME), 0);
+
+        StudentRegistry restored = new StudentRegistry(16, MODULES);
+        try (MutationJournal journal = MutationJournal.open(directory, restored,
+                MutationJournal.FsyncPolicy.ALWAYS, Long.MAX_VALUE)) {
+            assertEquals(1, restored.size());
+            assertEquals(80, restored.find("w2000001").getModuleMarks().getMark(0));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ReportWriterTest {
+    private static final int WIDTH = 10;
+
+    @Test
+    void twoDecimalsMatchPrintf() {
+        double[] values = {0, -0.0, 0.005, 0.015, 1.005, 2.675, 55.27, 99.995, 100, -1.5, -0.001,
+                33.333333333333336, 1e9, 1e9 - 0.005, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE};
+        for (double value : values) {
+            assertFormatted(value);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            assertFormatted(random.nextInt(100_001) / 1000.0);
+            assertFormatted(random.nextDouble() * 100);
+        }
+    }
+
+    private static void assertFormatted(double value) {
+        StringWriter out = new StringWriter();
+        ReportWriter writer = new ReportWriter(out);
+        writer.leftFixed2(value, WIDTH).text('|');
+        writer.flush();
+        assertEquals(String.format("%-" + WIDTH + ".2f|", value), out.toString(), Double.toString(value));
+    }
+}
@@ -0,0 +1,334 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Runs writers that register, delete, rename and re-mark students against readers that walk
+ * the indexes, then checks the registry against what every writer believes it did.
+ * Each writer owns its own range of IDs, so its view of those students is exact; a separate
+ * test has every thread register the same IDs.
+ */
+class StudentRegistryStressTest {
+    private static final int MODULES = 3;
+    private static final int WRITERS = 4;
+    private static final int READERS = 3;
+    private static final int KEYS_PER_WRITER = 1500;
+    private static final int OPERATIONS = 25_000;
+    private static final long SEED = 0x5EEDL;
+    private static final long PAUSE_NANOS = 200_000;
+    private static final String[] NAMES = {"Ada Lovelace", "ada lovelace", "Alan Turing", "Grace Hopper",
+            "GRACE HOPPER", "Zoë Quinn", "Edsger Dijkstra", "Barbara Liskov", "B", "Barbara"};
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(StudentColumns.Storage.class)
+    void indexesAndTotalsAgreeAfterConcurrentChanges(StudentColumns.Storage storage) throws Exception {
+        StudentRegistry registry = new StudentRegistry(WRITERS * KEYS_PER_WRITER, MODULES, storage);
+        Map<Integer, Row> expected = run(registry, null);
+        assertMatches(expected, registry);
+    }
+
+    @Test
+    void journalReplaysChangesMadeDuringCompactions() throws Exception {
+        StudentRegistry registry = new StudentRegistry(WRITERS * KEYS_PER_WRITER, MODULES);
+        Map<Integer, Row> expected;
+        try (MutationJournal journal = MutationJournal.open(directory, registry,
+                MutationJournal.FsyncPolicy.NEVER, 16 * 1024)) {
+            expected = run(registry, journal);
+            assertNull(journal.takeError());
+        }
+        assertTrue(Files.exists(directory.resolve(MutationJournal.SNAPSHOT_NAME)), "No compaction ran");
+        assertMatches(expected, registry);
+
+        StudentRegistry restored = new StudentRegistry(WRITERS * KEYS_PER_WRITER, MODULES);
+        try (MutationJournal journal = MutationJournal.open(directory, restored,
+                MutationJournal.FsyncPolicy.NEVER, Long.MAX_VALUE)) {
+            assertMatches(expected, restored);
+        }
+    }
+
+    /**
+     * Registers the same IDs from every thread at once, each thread in its own order, so the
+     * duplicate check and the insert must be one step for every ID to be taken exactly once.
+     */
+    @Test
+    void everyIdIsRegisteredByExactlyOneThread() throws Exception {
+        int threads = WRITERS + READERS;
+        int keys = KEYS_PER_WRITER * 4;
+        StudentRegistry registry = new StudentRegistry(keys, MODULES);
+        AtomicIntegerArray wins = new AtomicIntegerArray(keys);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<Integer> order = new ArrayList<>();
+                for (int k = 0; k < keys; k++) {
+                    order.add(k);
+                }
+                Collections.shuffle(order, new Random(SEED + t));
+                tasks.add(pool.submit(() -> {
+                    start.await();
+                    for (int k : order) {
+                        Student student = new Student(IdIndex.idOf(1_000_000 + k), "Student " + k, MODULES);
+                        if (registry.add(student)) {
+                            wins.incrementAndGet(k);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int k = 0; k < keys; k++) {
+            assertEquals(1, wins.get(k), IdIndex.idOf(1_000_000 + k));
+        }
+        assertEquals(keys, registry.size());
+        assertEquals(keys, checkRankOrder(registry).size());
+        assertEquals(keys, checkNameOrder(registry).size());
+    }
+
+    /**
+     * Runs the writers and readers until every writer is done.
+     * @return the students the writers left registered, by ID key.
+     */
+    private static Map<Integer, Row> run(StudentRegistry registry, MutationJournal journal) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        try {
+            List<Future<Map<Integer, Row>>> writers = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                int writer = w;
+                writers.add(pool.submit(() -> {
+                    start.await();
+                    return write(registry, journal, writer);
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                int reader = r;
+                readers.add(pool.submit(() -> {
+                    start.await();
+                    read(registry, reader, done);
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            Map<Integer, Row> expected = new HashMap<>();
+            try {
+                for (Future<Map<Integer, Row>> writer : writers) {
+                    expected.putAll(writer.get());
+                }
+            } finally {
+                done.set(true);
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+            return expected;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Map<Integer, Row> write(StudentRegistry registry, MutationJournal journal, int writer)
+            throws IOException {
+        Random random = new Random(SEED + writer);
+        Map<Integer, Row> rows = new HashMap<>();
+        int firstKey = 1_000_000 + writer * KEYS_PER_WRITER;
+        for (int i = 0; i < OPERATIONS; i++) {
+            int key = firstKey + random.nextInt(KEYS_PER_WRITER);
+            String id = IdIndex.idOf(key);
+            Row row = rows.get(key);
+            switch (random.nextInt(4)) {
+                case 0: // REG
+                    Row added = new Row(name(random), marks(random));
+                    assertEquals(row == null, registry.add(key, added.name, added.marks.clone()), id);
+                    if (row == null) {
+                        rows.put(key, added);
+                    }
+                    break;
+                case 1: // DEL
+                    Student removed = registry.remove(id);
+                    assertEquals(row != null, removed != null, id);
+                    rows.remove(key);
+                    break;
+                case 2: // MARKS
+                    if (row != null) {
+                        row.marks = marks(random);
+                        registry.setModuleMarks(key, row.marks.clone());
+                    }
+                    break;
+                default: // RENAME
+                    if (row != null) {
+                        row.name = name(random);
+                        registry.setStudentName(key, row.name);
+                    }
+                    break;
+            }
+            if (journal != null) {
+                journal.commit();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Checks what can be checked inside one read lock while the writers keep going.
+     */
+    private static void read(StudentRegistry registry, int reader, AtomicBoolean done) {
+        Random random = new Random(SEED - reader);
+        while (!done.get()) {
+            switch (reader) {
+                case 0:
+                    checkRankOrder(registry);
+                    break;
+                case 1:
+                    checkNameOrder(registry);
+                    break;
+                default:
+                    assertTrue(registry.verifyAggregates());
+                    String id = IdIndex.idOf(1_000_000 + random.nextInt(WRITERS * KEYS_PER_WRITER));
+                    Student copy = registry.copyOf(id);
+                    if (copy != null) {
+                        assertEquals(MODULES, copy.getModuleMarks().getModuleCount());
+                    }
+                    assertTrue(registry.rankOf(id) >= 0);
+                    break;
+            }
+            // StampedLock gives no preference to a waiting writer, so readers that never
+            // pause can keep the read lock held between them indefinitely
+            LockSupport.parkNanos(PAUSE_NANOS);
+        }
+    }
+
+    /**
+     * Walks the rank index and checks it is ordered by total, highest first, then by ID.
+     * @return the ID keys in rank order.
+     */
+    private static List<Integer> checkRankOrder(StudentRegistry registry) {
+        List<Integer> keys = new ArrayList<>();
+        double[] previousTotal = {Double.POSITIVE_INFINITY};
+        registry.forEachByRank(0, Integer.MAX_VALUE, student -> {
+            int key = student.getIdKey();
+            double total = student.getColumns().total(student.getSlot());
+            assertTrue(total < previousTotal[0]
+                    || total == previousTotal[0] && key > keys.get(keys.size() - 1), "Rank order at " + key);
+            previousTotal[0] = total;
+            keys.add(key);
+        });
+        return keys;
+    }
+
+    /**
+     * Walks the name index and checks it is ordered by case-folded name, then by ID.
+     * @return the ID keys in name order.
+     */
+    private static List<Integer> checkNameOrder(StudentRegistry registry) {
+        List<Integer> keys = new ArrayList<>();
+        String[] previousName = {null};
+        registry.forEachByName(0, Integer.MAX_VALUE, student -> {
+            int key = student.getIdKey();
+            String name = student.getColumns().nameKey(student.getSlot());
+            if (previousName[0] != null) {
+                int cmp = name.compareTo(previousName[0]);
+                assertTrue(cmp > 0 || cmp == 0 && key > keys.get(keys.size() - 1), "Name order at " + key);
+            }
+            previousName[0] = name;
+            keys.add(key);
+        });
+        return keys;
+    }
+
+    /**
+     * Checks the ID, rank and name indexes, the stored rows and the cohort totals against the
+     * students the writers left registered.
+     */
+    private static void assertMatches(Map<Integer, Row> expected, StudentRegistry registry) {
+        assertEquals(expected.size(), registry.size());
+        for (Map.Entry<Integer, Row> entry : expected.entrySet()) {
+            Student student = registry.copyOf(IdIndex.idOf(entry.getKey()));
+            assertNotNull(student, IdIndex.idOf(entry.getKey()));
+            assertEquals(entry.getValue().name, student.getStudentName());
+            double[] marks = new double[MODULES];
+            for (int m = 0; m < MODULES; m++) {
+                marks[m] = student.getModuleMarks().getMark(m);
+            }
+            assertArrayEquals(entry.getValue().marks, marks);
+        }
+
+        List<Integer> byRank = checkRankOrder(registry);
+        List<Integer> byName = checkNameOrder(registry);
+        assertEquals(expected.keySet(), new HashSet<>(byRank));
+        assertEquals(expected.keySet(), new HashSet<>(byName));
+        assertEquals(expected.size(), byRank.size());
+        assertEquals(expected.size(), byName.size());
+        for (int rank = 0; rank < byRank.size(); rank++) {
+            assertEquals(rank + 1, registry.rankOf(IdIndex.idOf(byRank.get(rank))));
+        }
+
+        StudentColumns copy = registry.copyColumns();
+        assertNull(registry.aggregates().difference(CohortAggregates.compute(copy, copy.rows())));
+        assertEquals(expected.size(), registry.aggregates().students());
+    }
+
+    private static String name(Random random) {
+        return NAMES[random.nextInt(NAMES.length)];
+    }
+
+    private static double[] marks(Random random) {
+        double[] marks = new double[MODULES];
+        for (int m = 0; m < MODULES; m++) {
+            marks[m] = random.nextInt(1001) / 10.0;
+        }
+        return marks;
+    }
+
+    /**
+     * What a writer expects to be stored for one of its students.
+     */
+    private static final class Row {
+        String name;
+        double[] marks;
+
+        Row(String name, double[] marks) {
+            this.name = name;
+            this.marks = marks;
+        }
+    }
+}
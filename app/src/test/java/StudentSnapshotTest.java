@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StudentSnapshotTest {
+    private static final int MODULES = 3;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 8 + 8 * MODULES;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void truncatedNameHeapIsReportedAsCorrupt() throws IOException {
+        Path file = writeSnapshot();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertCorrupt(file, 2);
+    }
+
+    @Test
+    void nameOffsetOutsideTheHeapIsReportedAsCorrupt() throws IOException {
+        Path file = writeSnapshot();
+        overwriteInt(file, HEADER_SIZE + RECORD_SIZE + 4, -8);
+        assertCorrupt(file, 1);
+        overwriteInt(file, HEADER_SIZE + RECORD_SIZE + 4, Integer.MAX_VALUE);
+        assertCorrupt(file, 1);
+    }
+
+    @Test
+    void nameLengthPastTheEndIsReportedAsCorrupt() throws IOException {
+        Path file = writeSnapshot();
+        long heapOffset = HEADER_SIZE + 3L * RECORD_SIZE;
+        overwriteInt(file, heapOffset, Integer.MAX_VALUE);
+        assertCorrupt(file, 0);
+        overwriteInt(file, heapOffset, -1);
+        assertCorrupt(file, 0);
+    }
+
+    private Path writeSnapshot() throws IOException {
+        StudentRegistry registry = new StudentRegistry(16, MODULES);
+        registry.add(IdIndex.keyOf("w1000001"), "Ada Lovelace", new double[] {50, 60, 70});
+        registry.add(IdIndex.keyOf("w1000002"), "Alan Turing", new double[] {40, 45, 50});
+        registry.add(IdIndex.keyOf("w1000003"), "Grace Hopper", new double[] {80, 85, 90});
+        Path file = directory.resolve("students.snap");
+        StudentSnapshot.write(registry, file);
+        return file;
+    }
+
+    private static void overwriteInt(Path file, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), position);
+        }
+    }
+
+    private static void assertCorrupt(Path file, int record) throws IOException {
+        try (StudentSnapshot snapshot = StudentSnapshot.open(file)) {
+            StudentRegistry registry = new StudentRegistry(16, MODULES);
+            IOException e = assertThrows(IOException.class, () -> snapshot.loadInto(registry));
+            assertEquals("Corrupt snapshot record " + record, e.getMessage());
+            assertEquals(record, registry.size());
+        }
+    }
+}
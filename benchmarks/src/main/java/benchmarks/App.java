@@ -0,0 +1,323 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Calls into the application for the benchmarks.
+ * The application classes are in the unnamed package, which code in a named package cannot
+ * refer to, and JMH does not allow benchmarks in the unnamed package. So the calls go through
+ * method handles with every application type erased to Object. The handles are static final
+ * constants, which the JIT compiles down to direct calls.
+ */
+final class App {
+    private static final Class<?> STORAGE = type("StudentColumns$Storage");
+    private static final Class<?> REPORT = type("ReportExporter$Report");
+    private static final Class<?> FORMAT = type("ReportExporter$Format");
+    private static final MethodHandle NEW_REGISTRY = constructor("StudentRegistry", int.class);
+    private static final MethodHandle NEW_STORED_REGISTRY = constructor("StudentRegistry", int.class, int.class, STORAGE);
+    private static final MethodHandle SIZE = method("StudentRegistry", "size", int.class);
+    private static final MethodHandle ADD = method("StudentRegistry", "add", boolean.class, int.class, String.class, double[].class);
+    private static final MethodHandle FIND = method("StudentRegistry", "find", "Student", String.class);
+    private static final MethodHandle CONTAINS = method("StudentRegistry", "contains", boolean.class, String.class);
+    private static final MethodHandle REMOVE = method("StudentRegistry", "remove", "Student", String.class);
+    private static final MethodHandle BEGIN_BULK_LOAD = method("StudentRegistry", "beginBulkLoad", void.class);
+    private static final MethodHandle END_BULK_LOAD = method("StudentRegistry", "endBulkLoad", void.class);
+    private static final MethodHandle AGGREGATES = method("StudentRegistry", "aggregates", "CohortAggregates");
+    private static final MethodHandle FOR_EACH_BY_NAME = method("StudentRegistry", "forEachByName", void.class, int.class, int.class, Consumer.class);
+    private static final MethodHandle ID_OF = staticMethod("IdIndex", "idOf", String.class, int.class);
+    private static final MethodHandle LOAD = staticMethod("StudentFileLoader", "load", "LoadSummary", Path.class, type("StudentRegistry"));
+    private static final MethodHandle LOAD_PARALLEL = staticMethod("ParallelStudentLoader", "load", "LoadSummary", Path.class, type("StudentRegistry"));
+    private static final MethodHandle WRITE_DETAILS = staticMethod("Main", "writeStudentDetails", void.class, type("StudentRegistry"), File.class);
+    private static final MethodHandle WRITE_SNAPSHOT = staticMethod("StudentSnapshot", "write", void.class, type("StudentRegistry"), Path.class);
+    private static final MethodHandle SAVE_SHARDS = staticMethod("StudentShards", "save", int.class, type("StudentRegistry"), int.class, List.class);
+    private static final MethodHandle LOAD_SHARDS = staticMethod("StudentShards", "load", "LoadSummary", Path.class, type("StudentRegistry"));
+    private static final MethodHandle WRITE_ARCHIVE = staticMethod("StudentArchive", "write", void.class, type("StudentRegistry"), Path.class, int.class);
+    private static final MethodHandle LOAD_ARCHIVE = staticMethod("StudentArchive", "load", "LoadSummary", Path.class, type("StudentRegistry"));
+    private static final MethodHandle EXPORT = staticMethod("ReportExporter", "export", long.class, type("StudentRegistry"), REPORT, FORMAT, Path.class);
+    private static final MethodHandle NEW_REPORT_WRITER = constructor("ReportWriter", Writer.class);
+    private static final MethodHandle SHORT_DETAILS = method("ReportWriter", "shortDetails", "ReportWriter", type("Student"));
+    private static final MethodHandle SUMMARY_REPORT = method("ReportWriter", "summaryReport", "ReportWriter", type("CohortAggregates"));
+    private static final MethodHandle COMPLETE_REPORT = method("ReportWriter", "completeReport", "ReportWriter", type("StudentRegistry"));
+    private static final MethodHandle FLUSH = method("ReportWriter", "flush", void.class);
+
+    private App() {
+    }
+
+    static Object newRegistry(int capacity) {
+        try {
+            return (Object) NEW_REGISTRY.invokeExact(capacity);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Creates a registry of three modules that keeps its students in the given storage.
+     * @param storage name of a StudentColumns.Storage constant.
+     */
+    static Object newRegistry(int capacity, String storage) {
+        try {
+            return (Object) NEW_STORED_REGISTRY.invokeExact(capacity, 3, constant(STORAGE, storage));
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int size(Object registry) {
+        try {
+            return (int) SIZE.invokeExact(registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean add(Object registry, int key, String name, double[] marks) {
+        try {
+            return (boolean) ADD.invokeExact(registry, key, (Object) name, (Object) marks);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object find(Object registry, String id) {
+        try {
+            return (Object) FIND.invokeExact(registry, (Object) id);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean contains(Object registry, String id) {
+        try {
+            return (boolean) CONTAINS.invokeExact(registry, (Object) id);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object remove(Object registry, String id) {
+        try {
+            return (Object) REMOVE.invokeExact(registry, (Object) id);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void beginBulkLoad(Object registry) {
+        try {
+            BEGIN_BULK_LOAD.invokeExact(registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void endBulkLoad(Object registry) {
+        try {
+            END_BULK_LOAD.invokeExact(registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void forEachByName(Object registry, int from, int count, Consumer<Object> action) {
+        try {
+            FOR_EACH_BY_NAME.invokeExact(registry, from, count, (Object) action);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String idOf(int key) {
+        try {
+            return (String) (Object) ID_OF.invokeExact(key);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object load(Path file, Object registry) {
+        try {
+            return (Object) LOAD.invokeExact((Object) file, registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object loadParallel(Path file, Object registry) {
+        try {
+            return (Object) LOAD_PARALLEL.invokeExact((Object) file, registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void writeStudentDetails(Object registry, File file) {
+        try {
+            WRITE_DETAILS.invokeExact(registry, (Object) file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void writeSnapshot(Object registry, Path file) {
+        try {
+            WRITE_SNAPSHOT.invokeExact(registry, (Object) file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int saveShards(Object registry, int shards, List<Path> directories) {
+        try {
+            return (int) SAVE_SHARDS.invokeExact(registry, shards, (Object) directories);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object loadShards(Path directory, Object registry) {
+        try {
+            return (Object) LOAD_SHARDS.invokeExact((Object) directory, registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void writeArchive(Object registry, Path file, int level) {
+        try {
+            WRITE_ARCHIVE.invokeExact(registry, (Object) file, level);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object loadArchive(Path file, Object registry) {
+        try {
+            return (Object) LOAD_ARCHIVE.invokeExact((Object) file, registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static long export(Object registry, String report, String format, Path file) {
+        try {
+            return (long) EXPORT.invokeExact(registry, constant(REPORT, report), constant(FORMAT, format), (Object) file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newReportWriter(Writer out) {
+        try {
+            return (Object) NEW_REPORT_WRITER.invokeExact((Object) out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void shortDetails(Object writer, Object student) {
+        try {
+            Object unused = (Object) SHORT_DETAILS.invokeExact(writer, student);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void summaryReport(Object writer, Object registry) {
+        try {
+            Object totals = (Object) AGGREGATES.invokeExact(registry);
+            Object unused = (Object) SUMMARY_REPORT.invokeExact(writer, totals);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void completeReport(Object writer, Object registry) {
+        try {
+            Object unused = (Object) COMPLETE_REPORT.invokeExact(writer, registry);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void flush(Object writer) {
+        try {
+            FLUSH.invokeExact(writer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not found: " + name, e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object constant(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            MethodHandle handle = lookup(type).findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access constructor of " + owner, e);
+        }
+    }
+
+    private static MethodHandle method(String owner, String name, Object returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            MethodType methodType = MethodType.methodType(returnClass(returnType), parameters);
+            MethodHandle handle = lookup(type).findVirtual(type, name, methodType);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access " + owner + "." + name, e);
+        }
+    }
+
+    private static MethodHandle staticMethod(String owner, String name, Object returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            MethodType methodType = MethodType.methodType(returnClass(returnType), parameters);
+            MethodHandle handle = lookup(type).findStatic(type, name, methodType);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access " + owner + "." + name, e);
+        }
+    }
+
+    /**
+     * Resolves a return type given as a class, or as the name of an application class.
+     */
+    private static Class<?> returnClass(Object returnType) {
+        return returnType instanceof String ? type((String) returnType) : (Class<?>) returnType;
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A registry filled with a generated cohort of students.
+ * The same size always generates the same students, so runs can be compared.
+ */
+@State(Scope.Benchmark)
+public class Cohort {
+    static final int MAX_SIZE = 10_000_000; // Every 7 digit ID
+    static final int PROBES = 1 << 12;      // IDs looked up in turn, a power of two
+    private static final long ID_STRIDE = 7_919; // Prime, so i * ID_STRIDE visits every ID once
+    private static final String[] FIRST_NAMES = {
+        "Amara", "Ben", "Chen", "Dilan", "Elif", "Farah", "Gita", "Hugo", "Ines", "Jonas",
+        "Kavya", "Liam", "Mei", "Nikhil", "Olga", "Priya", "Quinn", "Rui", "Sara", "Tariq",
+    };
+    private static final String[] LAST_NAMES = {
+        "Perera", "Silva", "Fernando", "Smith", "Jones", "Nguyen", "Garcia", "Kumar", "Müller", "Rossi",
+        "Okafor", "Tanaka", "Kowalski", "Haddad", "Novak", "Dubois", "Larsen", "Ivanova", "Costa", "Ahmed",
+    };
+
+    @Param({"100", "10000", "1000000", "10000000"})
+    public int size;
+
+    Object registry;
+    int[] keys;        // Keys of registered IDs, PROBES of them
+    String[] ids;      // The same IDs as strings
+    String[] missing;  // IDs that are not registered, PROBES of them
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = build(size);
+        keys = new int[PROBES];
+        ids = new String[PROBES];
+        missing = new String[PROBES];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < PROBES; i++) {
+            keys[i] = key(random.nextInt(size));
+            ids[i] = App.idOf(keys[i]);
+            missing[i] = size < MAX_SIZE ? App.idOf(key(size + random.nextInt(MAX_SIZE - size))) : "w10000000";
+        }
+    }
+
+    /**
+     * Picks the next probe index, cycling through all of them.
+     * @return an index into ids and missing.
+     */
+    int nextProbe() {
+        return next++ & (PROBES - 1);
+    }
+
+    /**
+     * Builds a registry holding the generated cohort.
+     * @param size number of students, at most MAX_SIZE.
+     * @return the registry, full.
+     */
+    static Object build(int size) {
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Cohort larger than " + MAX_SIZE + ": " + size);
+        }
+        Object registry = App.newRegistry(size);
+        SplittableRandom random = new SplittableRandom(42);
+        double[] marks = new double[3];
+        App.beginBulkLoad(registry);
+        for (int i = 0; i < size; i++) {
+            for (int m = 0; m < marks.length; m++) {
+                marks[m] = random.nextInt(201) / 2.0;
+            }
+            App.add(registry, key(i), name(random), marks);
+        }
+        App.endBulkLoad(registry);
+        return registry;
+    }
+
+    /**
+     * The ID key of student number i of a cohort, spread over the whole ID range.
+     */
+    static int key(int i) {
+        return (int) (i * ID_STRIDE % MAX_SIZE);
+    }
+
+    /**
+     * Generates a student name.
+     * @param random the generator to use.
+     * @return a first and last name.
+     */
+    static String name(SplittableRandom random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    /**
+     * Generates marks for the student that replaces a deleted one.
+     * @param i a counter.
+     * @param marks receives the marks.
+     */
+    static void marks(int i, double[] marks) {
+        for (int m = 0; m < marks.length; m++) {
+            marks[m] = (i * 37 + m * 11) % 201 / 2.0;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * loadStudentDetails and storeStudentDetailsToFile on generated files, plus the binary snapshot,
+ * the shard files and the compressed archive.
+ * Every load fills a new, empty registry; loadStudentDetails picks the sequential loader for
+ * small files and the parallel one for large files, so both are measured.
+ * Loads are measured into heap and off-heap storage, and shards with one to sixteen files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g", "-XX:MaxDirectMemorySize=3g"})
+public class FileBenchmark {
+    private static final int ARCHIVE_LEVEL = 1; // The default --archive-level
+
+    @Benchmark
+    public Object load(CohortFile file) {
+        Object registry = App.newRegistry(file.size, file.storage);
+        App.load(file.path, registry);
+        return registry;
+    }
+
+    @Benchmark
+    public Object loadParallel(CohortFile file) {
+        Object registry = App.newRegistry(file.size, file.storage);
+        App.loadParallel(file.path, registry);
+        return registry;
+    }
+
+    @Benchmark
+    public void store(Cohort cohort, Output output) {
+        App.writeStudentDetails(cohort.registry, output.path.toFile());
+    }
+
+    @Benchmark
+    public void storeSnapshot(Cohort cohort, Output output) {
+        App.writeSnapshot(cohort.registry, output.path);
+    }
+
+    @Benchmark
+    public Object loadShards(CohortShards shards) {
+        Object registry = App.newRegistry(shards.size, "HEAP");
+        App.loadShards(shards.directory, registry);
+        return registry;
+    }
+
+    @Benchmark
+    public int storeShards(Cohort cohort, ShardOutput output) {
+        return App.saveShards(cohort.registry, output.shards, List.of(output.directory));
+    }
+
+    @Benchmark
+    public Object loadArchive(CohortArchive archive) {
+        Object registry = App.newRegistry(archive.size, "HEAP");
+        App.loadArchive(archive.path, registry);
+        return registry;
+    }
+
+    @Benchmark
+    public void storeArchive(Cohort cohort, Output output) {
+        App.writeArchive(cohort.registry, output.path, ARCHIVE_LEVEL);
+    }
+
+    /**
+     * A student details file holding the generated cohort.
+     * The cohort is only kept while the file is written, so loads run with an empty heap.
+     */
+    @State(Scope.Benchmark)
+    public static class CohortFile {
+        @Param({"100", "10000", "1000000", "10000000"})
+        public int size;
+
+        @Param({"HEAP", "OFFHEAP"})
+        public String storage;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = Files.createTempFile("student_details", ".txt");
+            App.writeStudentDetails(Cohort.build(size), path.toFile());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Shard files holding the generated cohort, kept like CohortFile.
+     */
+    @State(Scope.Benchmark)
+    public static class CohortShards {
+        @Param({"10000", "1000000", "10000000"})
+        public int size;
+
+        @Param({"1", "4", "16"})
+        public int shards;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("student_details");
+            App.saveShards(Cohort.build(size), shards, List.of(directory));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteTree(directory);
+        }
+    }
+
+    /**
+     * An archive file holding the generated cohort, kept like CohortFile.
+     */
+    @State(Scope.Benchmark)
+    public static class CohortArchive {
+        @Param({"10000", "1000000", "10000000"})
+        public int size;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = Files.createTempFile("student_details", ".archive");
+            App.writeArchive(Cohort.build(size), path, ARCHIVE_LEVEL);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * A temporary directory to store shards into.
+     */
+    @State(Scope.Thread)
+    public static class ShardOutput {
+        @Param({"1", "4", "16"})
+        public int shards;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("student_details");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteTree(directory);
+        }
+    }
+
+    /**
+     * A temporary file to store into.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = Files.createTempFile("student_details", ".out");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
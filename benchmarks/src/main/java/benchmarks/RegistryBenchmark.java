@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and deletes on a full registry: findStudentByID, the duplicate check of
+ * registerStudent, and deleteStudent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class RegistryBenchmark {
+
+    @Benchmark
+    public Object find(Cohort cohort) {
+        return App.find(cohort.registry, cohort.ids[cohort.nextProbe()]);
+    }
+
+    @Benchmark
+    public boolean containsRegistered(Cohort cohort) {
+        return App.contains(cohort.registry, cohort.ids[cohort.nextProbe()]);
+    }
+
+    @Benchmark
+    public boolean containsMissing(Cohort cohort) {
+        return App.contains(cohort.registry, cohort.missing[cohort.nextProbe()]);
+    }
+
+    /**
+     * Deletes a student and registers it again with new marks, so the cohort keeps its size.
+     * The registration is part of the measurement.
+     */
+    @Benchmark
+    public boolean deleteAndRegister(Cohort cohort, Replacement replacement) {
+        int probe = cohort.nextProbe();
+        App.remove(cohort.registry, cohort.ids[probe]);
+        Cohort.marks(replacement.count++, replacement.marks);
+        return App.add(cohort.registry, cohort.keys[probe], Replacement.NAME, replacement.marks);
+    }
+
+    /**
+     * The details of a student registered in place of a deleted one.
+     */
+    @State(Scope.Thread)
+    public static class Replacement {
+        static final String NAME = "Replacement Student";
+        final double[] marks = new double[3];
+        int count;
+    }
+}
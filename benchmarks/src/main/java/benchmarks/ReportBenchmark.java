@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The reports: a page of viewStudentsSortedByName, generateSummaryReport and
+ * generateCompleteReport. The text is formatted in full and then discarded, so the console
+ * is not measured. The complete report is also exported to CSV and JSON files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class ReportBenchmark {
+    private static final int PAGE_SIZE = 20; // As Main shows them
+
+    /**
+     * Shows the middle page of the students sorted by name.
+     */
+    @Benchmark
+    public void namePage(Cohort cohort) {
+        Object writer = App.newReportWriter(Writer.nullWriter());
+        int pages = (App.size(cohort.registry) + PAGE_SIZE - 1) / PAGE_SIZE;
+        App.forEachByName(cohort.registry, pages / 2 * PAGE_SIZE, PAGE_SIZE, student -> App.shortDetails(writer, student));
+        App.flush(writer);
+    }
+
+    @Benchmark
+    public void summaryReport(Cohort cohort) {
+        Object writer = App.newReportWriter(Writer.nullWriter());
+        App.summaryReport(writer, cohort.registry);
+        App.flush(writer);
+    }
+
+    @Benchmark
+    public void completeReport(Cohort cohort) {
+        Object writer = App.newReportWriter(Writer.nullWriter());
+        App.completeReport(writer, cohort.registry);
+        App.flush(writer);
+    }
+
+    @Benchmark
+    public long exportCompleteReport(Cohort cohort, Export export) {
+        return App.export(cohort.registry, "COMPLETE", export.format, export.path);
+    }
+
+    /**
+     * A temporary file to export into.
+     */
+    @State(Scope.Thread)
+    public static class Export {
+        @Param({"CSV", "JSON"})
+        public String format;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = Files.createTempFile("report", ".out");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs a stream of commands without menus, one command per line.
+ * Besides the commands of StudentCommands there are:
+ * <pre>
+ * SAVE [csv|snapshot|shards|archive]  store student_details.txt, the snapshot, shard or archive files
+ * LOAD [csv|snapshot|shards|archive]  load student_details.txt, the snapshot, shard or archive files
+ * EXPORT summary|complete|names csv|json [FILE]
+ *                                     export a report, by default to report_NAME.csv or .json
+ * </pre>
+ * Blank lines and lines starting with # are ignored.
+ * A failing command is reported with its line number and the run carries on.
+ * Registrations are indexed in bulk and the journal is committed every COMMIT_EVERY commands.
+ */
+class BatchRunner {
+    private static final int COMMIT_EVERY = 1024;
+
+    private final StudentRegistry registry;
+    private final MutationJournal journal;
+    private final StudentCommands commands;
+    private ReportWriter out; // Standard output while the commands run
+    long executed; // Commands run
+    long failed;   // Commands that reported an error
+
+    /**
+     * Constructor for the BatchRunner class.
+     * @param registry the registry the commands act on.
+     * @param journal the journal to commit, or null when journaling is off.
+     */
+    BatchRunner(StudentRegistry registry, MutationJournal journal) {
+        this.registry = registry;
+        this.journal = journal;
+        this.commands = new StudentCommands(registry, true);
+    }
+
+    /**
+     * Runs every command of the input.
+     * Standard output is buffered while the commands run and flushed at the end.
+     *
+     * @param in the commands
+     * @throws IOException if the input cannot be read or the journal cannot be written
+     */
+    void run(BufferedReader in) throws IOException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+        out = new ReportWriter(System.out);
+        long start = System.nanoTime();
+        try {
+            String line;
+            long lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                executed++;
+                String error = execute(line);
+                if (error != null) {
+                    failed++;
+                    out.flush();
+                    System.err.println("Line " + lineNumber + ": " + error);
+                }
+                if (journal != null && executed % COMMIT_EVERY == 0) {
+                    journal.commit();
+                }
+            }
+            registry.endBulkLoad();
+            if (journal != null) {
+                journal.commit();
+            }
+        } finally {
+            out.flush();
+            System.setOut(console);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("Batch finished: %d commands, %d failed, in %.3f s (%d ops/s)%n",
+                executed, failed, nanos / 1e9, nanos == 0 ? 0 : executed * 1_000_000_000L / nanos);
+    }
+
+    /**
+     * Runs one command.
+     * @param line the command line, trimmed and not empty.
+     * @return an error message, or null if the command succeeded.
+     */
+    private String execute(String line) {
+        String[] words = line.split("\\s+", 3);
+        String command = words[0].toUpperCase();
+        String file = words.length > 1 ? words[1] : "";
+
+        switch (command) {
+            case "SAVE":
+            case "LOAD":
+                boolean save = command.equals("SAVE");
+                String kind = file.isEmpty() ? "csv" : file.toLowerCase();
+                boolean done;
+                out.flush(); // Main prints straight to System.out, including why a command failed
+                switch (kind) {
+                    case "csv":
+                        done = save ? Main.storeStudentDetailsToFile() : Main.loadStudentDetails();
+                        break;
+                    case "snapshot":
+                        done = save ? Main.storeSnapshot() : Main.loadSnapshot();
+                        break;
+                    case "shards":
+                        done = save ? Main.storeShards() : Main.loadShards();
+                        break;
+                    case "archive":
+                        done = save ? Main.storeArchive() : Main.loadArchive();
+                        break;
+                    default:
+                        return "Unknown file: " + file + " (expected csv, snapshot, shards or archive)";
+                }
+                return done ? null : command + " " + kind + " failed";
+
+            case "EXPORT":
+                String[] formatAndFile = words.length > 2 ? words[2].split("\\s+", 2) : new String[0];
+                ReportExporter.Report report;
+                ReportExporter.Format format;
+                Path target;
+                try {
+                    report = ReportExporter.Report.valueOf(file.toUpperCase());
+                    format = ReportExporter.Format.valueOf(formatAndFile.length > 0 ? formatAndFile[0].toUpperCase() : "");
+                    target = formatAndFile.length > 1 ? Paths.get(formatAndFile[1]) : null;
+                } catch (IllegalArgumentException e) { // Also thrown for an invalid path
+                    return "Usage: EXPORT summary|complete|names csv|json [FILE]";
+                }
+                out.flush(); // Main prints straight to System.out
+                return Main.exportReport(report, format, target) ? null : "EXPORT failed";
+
+            default:
+                return commands.execute(line, out);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.util.Arrays;
+
+/**
+ * Running totals over every registered student, kept up to date by the registry as students
+ * are added, removed or given new marks, so the summary report never has to scan the cohort.
+ * A student passes a module with more than PASS_MARK marks.
+ * <p>
+ * Besides counts and sums there is a histogram of the marks of each module and of the
+ * averages, with one bucket per tenth of a mark from 0 to 100. Percentiles and mark bands
+ * are read from the buckets in constant time, without sorting the cohort. Marks are cut
+ * down to whole tenths for this; marks outside 0 to 100, which only a loaded file can
+ * contain, are counted separately and left out.
+ */
+class CohortAggregates {
+    static final double PASS_MARK = 40;
+    static final char[] GRADES = {'A', 'B', 'C', 'D', 'F'};
+    static final int BANDS = 10;             // Mark bands of 10 marks each
+    private static final int BUCKETS = 1001; // Tenths of a mark from 0.0 to 100.0
+    private static final int BLOCK = 1024;   // Students per block when adding many at once
+
+    private final int modules;
+    private long students;
+    private final long[] passes;
+    private long passedAll;
+    private final double[] sums;   // Finite marks only
+    private final long[] summed;   // Number of marks in each sum
+    private final long[] grades = new long[GRADES.length];
+    private final long[][] histograms; // Each module, then the averages
+    private final long[] unbucketed;   // Values outside 0 to 100
+
+    /**
+     * Constructor to create empty totals.
+     * @param modules number of modules every student has marks for.
+     */
+    CohortAggregates(int modules) {
+        this.modules = modules;
+        passes = new long[modules];
+        sums = new double[modules];
+        summed = new long[modules];
+        histograms = new long[modules + 1][BUCKETS];
+        unbucketed = new long[modules + 1];
+    }
+
+    /**
+     * Adds a student to the totals.
+     * @param columns the storage holding the student.
+     * @param slot the slot of the student.
+     */
+    void add(StudentColumns columns, int slot) {
+        apply(columns, slot, 1);
+    }
+
+    /**
+     * Removes a student from the totals.
+     * @param columns the storage holding the student, with the marks it was added with.
+     * @param slot the slot of the student.
+     */
+    void remove(StudentColumns columns, int slot) {
+        apply(columns, slot, -1);
+        if (students == 0) {
+            Arrays.fill(sums, 0); // Drop any rounding left over from the removals
+        }
+    }
+
+    /**
+     * Adds a range of students to the totals, with the same result as adding them one by one.
+     * The marks are copied out a block of students and one module column at a time, and the
+     * totals of the block are summed column by column into a primitive array. Those are plain loops
+     * over contiguous doubles, which the JIT compiles to SIMD instructions.
+     * @param columns the storage holding the students.
+     * @param from the first slot to add.
+     * @param to the slot after the last one to add.
+     */
+    void addAll(StudentColumns columns, int from, int to) {
+        double[] totals = new double[BLOCK];
+        double[] column = new double[BLOCK];
+        boolean[] failed = new boolean[BLOCK];
+        for (int start = from; start < to; start += BLOCK) {
+            int count = Math.min(BLOCK, to - start);
+            Arrays.fill(totals, 0, count, 0);
+            Arrays.fill(failed, 0, count, false);
+            for (int m = 0; m < modules; m++) {
+                columns.readMarks(m, start, count, column);
+                for (int i = 0; i < count; i++) {
+                    totals[i] += column[i];
+                }
+                long passed = 0;
+                double sum = 0;
+                long finite = 0;
+                for (int i = 0; i < count; i++) {
+                    double mark = column[i];
+                    if (Double.isFinite(mark)) {
+                        sum += mark;
+                        finite++;
+                    }
+                    if (mark > PASS_MARK) {
+                        passed++;
+                    } else {
+                        failed[i] = true;
+                    }
+                    count(m, mark, 1);
+                }
+                passes[m] += passed;
+                sums[m] += sum;
+                summed[m] += finite;
+            }
+            for (int i = 0; i < count; i++) {
+                double average = totals[i] / modules;
+                grades[gradeIndex(Student.getGrade(average))]++;
+                count(modules, average, 1);
+                if (!failed[i]) {
+                    passedAll++;
+                }
+            }
+            students += count;
+        }
+    }
+
+    /**
+     * Recomputes the totals from scratch.
+     * @param columns the storage to scan.
+     * @param count number of slots in use.
+     * @return the totals.
+     */
+    static CohortAggregates compute(StudentColumns columns, int count) {
+        CohortAggregates aggregates = new CohortAggregates(columns.moduleCount());
+        aggregates.addAll(columns, 0, count);
+        return aggregates;
+    }
+
+    /**
+     * Copies the totals.
+     * @return an independent copy.
+     */
+    CohortAggregates copy() {
+        CohortAggregates copy = new CohortAggregates(modules);
+        copy.students = students;
+        System.arraycopy(passes, 0, copy.passes, 0, passes.length);
+        copy.passedAll = passedAll;
+        System.arraycopy(sums, 0, copy.sums, 0, sums.length);
+        System.arraycopy(summed, 0, copy.summed, 0, summed.length);
+        System.arraycopy(grades, 0, copy.grades, 0, grades.length);
+        for (int series = 0; series <= modules; series++) {
+            System.arraycopy(histograms[series], 0, copy.histograms[series], 0, BUCKETS);
+        }
+        System.arraycopy(unbucketed, 0, copy.unbucketed, 0, unbucketed.length);
+        return copy;
+    }
+
+    /**
+     * Getter for the number of modules.
+     * @return number of modules.
+     */
+    int moduleCount() {
+        return modules;
+    }
+
+    /**
+     * Getter for the series number of the averages, which comes after the modules.
+     * @return the series number to pass to percentile, bandCount and unbucketed.
+     */
+    int averageSeries() {
+        return modules;
+    }
+
+    /**
+     * Getter for the number of students.
+     * @return number of students.
+     */
+    long students() {
+        return students;
+    }
+
+    /**
+     * Getter for the number of students who passed a module.
+     * @param module module number starting at 0.
+     * @return number of students scoring more than PASS_MARK in the module.
+     */
+    long passes(int module) {
+        return passes[module];
+    }
+
+    /**
+     * Getter for the number of students who passed every module.
+     * @return number of students scoring more than PASS_MARK in all modules.
+     */
+    long passedAll() {
+        return passedAll;
+    }
+
+    /**
+     * Calculates the mean mark of a module, leaving out marks that are not finite numbers.
+     * @param module module number starting at 0.
+     * @return the mean, or 0 if there are no marks.
+     */
+    double mean(int module) {
+        return summed[module] == 0 ? 0 : sums[module] / summed[module];
+    }
+
+    /**
+     * Getter for the number of students with a grade.
+     * @param grade one of GRADES.
+     * @return number of students with that grade.
+     */
+    long gradeCount(char grade) {
+        return grades[gradeIndex(grade)];
+    }
+
+    /**
+     * Finds a percentile of the marks of a module or of the averages, rounded down to a tenth
+     * of a mark.
+     * @param series module number starting at 0, or averageSeries().
+     * @param fraction the percentile as a fraction, for example 0.9.
+     * @return the smallest value that at least that fraction of the values are not above,
+     *         or NaN if there are no values between 0 and 100.
+     */
+    double percentile(int series, double fraction) {
+        long[] histogram = histograms[series];
+        long count = 0;
+        for (long bucketCount : histogram) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return bucket / 10.0;
+            }
+        }
+        return 100;
+    }
+
+    /**
+     * Counts the values of a module or of the averages in a band of 10 marks.
+     * The last band also holds the values of exactly 100.
+     * @param series module number starting at 0, or averageSeries().
+     * @param band band number from 0 for marks below 10 to BANDS - 1.
+     * @return number of values in the band.
+     */
+    long bandCount(int series, int band) {
+        int from = band * (BUCKETS - 1) / BANDS;
+        int to = band == BANDS - 1 ? BUCKETS : (band + 1) * (BUCKETS - 1) / BANDS;
+        long count = 0;
+        for (int bucket = from; bucket < to; bucket++) {
+            count += histograms[series][bucket];
+        }
+        return count;
+    }
+
+    /**
+     * Getter for the number of values left out of the histogram of a module or of the averages.
+     * @param series module number starting at 0, or averageSeries().
+     * @return number of values below 0, above 100 or not a number.
+     */
+    long unbucketed(int series) {
+        return unbucketed[series];
+    }
+
+    /**
+     * Compares two sets of totals. Counts must be equal; sums may differ by rounding.
+     * @param other the totals to compare with.
+     * @return a description of the first difference, or null if they match.
+     */
+    String difference(CohortAggregates other) {
+        if (students != other.students) {
+            return "students " + students + " != " + other.students;
+        }
+        if (passedAll != other.passedAll) {
+            return "passed all modules " + passedAll + " != " + other.passedAll;
+        }
+        for (int m = 0; m < passes.length; m++) {
+            if (passes[m] != other.passes[m]) {
+                return "passes in module " + (m + 1) + " " + passes[m] + " != " + other.passes[m];
+            }
+            double tolerance = 1e-6 * Math.max(1, Math.abs(other.sums[m]));
+            if (summed[m] != other.summed[m] || !(Math.abs(sums[m] - other.sums[m]) <= tolerance)) {
+                return "sum of module " + (m + 1) + " " + sums[m] + " != " + other.sums[m];
+            }
+        }
+        for (int g = 0; g < grades.length; g++) {
+            if (grades[g] != other.grades[g]) {
+                return "grade " + GRADES[g] + " " + grades[g] + " != " + other.grades[g];
+            }
+        }
+        for (int series = 0; series <= modules; series++) {
+            if (unbucketed[series] != other.unbucketed[series]
+                    || !Arrays.equals(histograms[series], other.histograms[series])) {
+                return "histogram " + (series == modules ? "of averages" : "of module " + (series + 1)) + " differs";
+            }
+        }
+        return null;
+    }
+
+    private void apply(StudentColumns columns, int slot, int sign) {
+        students += sign;
+        boolean passedEvery = true;
+        for (int m = 0; m < modules; m++) {
+            double mark = columns.mark(m, slot);
+            if (Double.isFinite(mark)) {
+                // A NaN or infinite mark loaded from a file would never subtract back out
+                sums[m] += sign * mark;
+                summed[m] += sign;
+            }
+            if (mark > PASS_MARK) {
+                passes[m] += sign;
+            } else {
+                passedEvery = false;
+            }
+            count(m, mark, sign);
+        }
+        if (passedEvery) {
+            passedAll += sign;
+        }
+        double average = columns.average(slot);
+        grades[gradeIndex(Student.getGrade(average))] += sign;
+        count(modules, average, sign);
+    }
+
+    /**
+     * Adds a value to, or removes it from, the histogram of a series.
+     */
+    private void count(int series, double value, int sign) {
+        if (value >= 0 && value <= 100) {
+            // The margin keeps marks such as 55.3, which is 552.999... tenths, in their own bucket
+            histograms[series][(int) (value * 10 + 1e-9)] += sign;
+        } else {
+            unbucketed[series] += sign;
+        }
+    }
+
+    private static int gradeIndex(char grade) {
+        switch (grade) {
+            case 'A':
+                return 0;
+            case 'B':
+                return 1;
+            case 'C':
+                return 2;
+            case 'D':
+                return 3;
+            default:
+                return 4;
+        }
+    }
+}
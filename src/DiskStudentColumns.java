@@ -0,0 +1,506 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Student storage in files, for cohorts that do not fit in memory.
+ * Every slot has a fixed-size record in a rows file, at slot * record size, holding the ID
+ * key, the marks and where the name is. Names are appended as UTF-16 characters to a names
+ * file, which is compacted once it has grown to twice the size of the names in use.
+ * <p>
+ * Rows are faulted into an LRU cache of a fixed number of rows when they are read, and
+ * changes are made to the cached rows. A changed row is written back when it is evicted, and
+ * all of them are when the storage is copied or scanned with readMarks. The heap therefore
+ * holds the cache and nothing else per student; the ID, rank and name indexes of the registry
+ * stay in memory. Hits, misses and write-backs are counted in Metrics.
+ * <p>
+ * The files are working storage for one run: they are created in a directory and deleted
+ * when the storage is no longer used or the JVM exits. Saving the registry still goes
+ * through the student file, the snapshot or the journal.
+ * All methods are synchronized, because reads move rows in the cache.
+ */
+class DiskStudentColumns extends StudentColumns {
+    static final int DEFAULT_CACHE_ROWS = 100_000;
+    private static final int ID_KEY = 0;    // Byte offsets of the fields in a row record
+    private static final int MARKS = 4;
+    private static final int SCAN_ROWS = 1024; // Rows read at once by compaction
+    private static final int READ_AHEAD_ROWS = 64; // Records read by a miss, for the misses on the next slots
+    private static final long MIN_COMPACT_BYTES = 16L << 20;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Path directory;
+    private final int cacheRows;
+    private final int recordBytes;
+    private final int nameLength;  // Byte offset of the name length in a record
+    private final int nameOffset;  // Byte offset of the name position in a record
+    private final OpenFiles files;
+    private final LinkedHashMap<Integer, Row> cache;
+    private final ByteBuffer record;
+    private int rows;
+    private int dirtyRows;
+    private long namesEnd;
+    private long compactAt = MIN_COMPACT_BYTES; // Size of the names file that triggers compaction
+    private ByteBuffer scan;    // Records read ahead by the last miss or readMarks, kept up to date by writes
+    private int scanFrom;
+    private int scanCount;
+    private ByteBuffer nameBuffer = ByteBuffer.allocateDirect(256).order(ByteOrder.nativeOrder());
+    private Row spare;          // The last row evicted, reused by the next miss
+
+    /**
+     * A cached row. Dirty rows differ from their record in the rows file.
+     */
+    private static final class Row {
+        int idKey;
+        String name;
+        String nameKey;      // Folded when first needed, null until then
+        final double[] marks;
+        boolean dirty;
+        boolean nameChanged; // The name is not in the names file yet
+
+        Row(int modules) {
+            marks = new double[modules];
+        }
+    }
+
+    /**
+     * The open files, closed and so deleted by the cleaner once the storage is unreachable.
+     */
+    private static final class OpenFiles implements Runnable {
+        FileChannel rows;
+        FileChannel names;
+
+        @Override
+        public void run() {
+            try {
+                rows.close();
+                names.close();
+            } catch (IOException e) {
+                // The files are deleted when the JVM exits
+            }
+        }
+    }
+
+    /**
+     * Constructor to create storage in new files in the temporary directory, with
+     * DEFAULT_CACHE_ROWS rows cached.
+     * @param rows number of rows to allocate.
+     * @param modules number of modules each student has marks for.
+     */
+    DiskStudentColumns(int rows, int modules) {
+        this(rows, modules, Paths.get(System.getProperty("java.io.tmpdir")), DEFAULT_CACHE_ROWS);
+    }
+
+    /**
+     * Constructor to create storage in new files.
+     * @param rows number of rows to allocate.
+     * @param modules number of modules each student has marks for.
+     * @param directory where the files are created.
+     * @param cacheRows number of rows kept in memory.
+     * @throws UncheckedIOException if the files cannot be created
+     */
+    DiskStudentColumns(int rows, int modules, Path directory, int cacheRows) {
+        super(modules);
+        if (cacheRows <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheRows);
+        }
+        this.directory = directory;
+        this.cacheRows = cacheRows;
+        this.rows = rows;
+        nameLength = MARKS + 8 * modules;
+        nameOffset = nameLength + 4;
+        recordBytes = nameOffset + 8;
+        record = ByteBuffer.allocateDirect(recordBytes).order(ByteOrder.nativeOrder());
+        files = new OpenFiles();
+        try {
+            files.rows = open(directory, ".rows");
+            files.names = open(directory, ".names");
+        } catch (IOException e) {
+            files.run();
+            throw new UncheckedIOException("Cannot create the student files in " + directory, e);
+        }
+        CLEANER.register(this, files);
+        cache = new LinkedHashMap<Integer, Row>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+                if (size() <= DiskStudentColumns.this.cacheRows) {
+                    return false;
+                }
+                Metrics.recordCacheEviction();
+                writeBack(eldest.getKey(), eldest.getValue());
+                spare = eldest.getValue();
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public synchronized int rows() {
+        return rows;
+    }
+
+    @Override
+    public synchronized void ensureRows(int rows) {
+        this.rows = Math.max(this.rows, rows); // The rows file grows as records are written
+    }
+
+    @Override
+    public synchronized int idKey(int slot) {
+        return row(slot).idKey;
+    }
+
+    @Override
+    public synchronized String name(int slot) {
+        return row(slot).name;
+    }
+
+    @Override
+    public synchronized void setName(int slot, String name) {
+        Row row = row(slot);
+        row.name = name;
+        row.nameKey = null;
+        row.nameChanged = true;
+        markDirty(row);
+        compactIfDue();
+    }
+
+    @Override
+    public synchronized String nameKey(int slot) {
+        Row row = row(slot);
+        if (row.nameKey == null) {
+            row.nameKey = collationKey(row.name);
+        }
+        return row.nameKey;
+    }
+
+    @Override
+    public synchronized double mark(int module, int slot) {
+        return row(slot).marks[module];
+    }
+
+    @Override
+    public synchronized void setMark(int module, int slot, double mark) {
+        Row row = row(slot);
+        row.marks[module] = mark;
+        markDirty(row);
+    }
+
+    @Override
+    public synchronized double total(int slot) {
+        double total = 0;
+        for (double mark : row(slot).marks) {
+            total += mark;
+        }
+        return total;
+    }
+
+    /**
+     * Reads the marks straight from the rows file, after writing back the changed rows, so
+     * a scan does not push the working set out of the cache. The records of one call are
+     * kept for the calls for the other modules of the same rows.
+     */
+    @Override
+    public synchronized void readMarks(int module, int from, int count, double[] into) {
+        flush();
+        int offset = scanned(from, count) + MARKS + 8 * module;
+        for (int i = 0; i < count; i++) {
+            into[i] = scan.getDouble(offset + i * recordBytes);
+        }
+    }
+
+    @Override
+    public synchronized void set(int slot, int idKey, String name) {
+        Row row = cache.get(slot);
+        if (row == null) {
+            // The whole row is replaced, so there is nothing to read
+            row = newRow();
+            cache.put(slot, row);
+        }
+        row.idKey = idKey;
+        row.name = name;
+        row.nameKey = null;
+        java.util.Arrays.fill(row.marks, 0);
+        row.nameChanged = true;
+        markDirty(row);
+        compactIfDue();
+    }
+
+    /**
+     * Copies the first rows into new files with the same cache size.
+     */
+    @Override
+    public synchronized StudentColumns copy(int count) {
+        flush();
+        DiskStudentColumns copy = new DiskStudentColumns(count, moduleCount(), directory, cacheRows);
+        try {
+            transfer(files.rows, (long) count * recordBytes, copy.files.rows);
+            transfer(files.names, namesEnd, copy.files.names);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        copy.namesEnd = namesEnd;
+        copy.compactAt = compactAt;
+        return copy;
+    }
+
+    @Override
+    public synchronized void clear(int slot) {
+        Row row = cache.remove(slot);
+        if (row != null && row.dirty) {
+            dirtyRows--;
+        }
+        // An empty record, so compaction drops the name
+        record.clear();
+        while (record.hasRemaining()) {
+            record.put((byte) 0);
+        }
+        record.flip();
+        writeRecord(slot, record);
+    }
+
+    /**
+     * Writes every changed row in the cache back to the rows file.
+     */
+    synchronized void flush() {
+        if (dirtyRows == 0) {
+            return;
+        }
+        for (Map.Entry<Integer, Row> entry : cache.entrySet()) {
+            if (entry.getValue().dirty) {
+                writeBack(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets a row from the cache, reading it from the files on a miss.
+     */
+    private Row row(int slot) {
+        Row row = cache.get(slot);
+        if (row != null) {
+            Metrics.recordCacheHit();
+            return row;
+        }
+        Metrics.recordCacheMiss();
+        row = newRow();
+        int at = scanned(slot, 1);
+        row.idKey = scan.getInt(at + ID_KEY);
+        for (int m = 0; m < row.marks.length; m++) {
+            row.marks[m] = scan.getDouble(at + MARKS + 8 * m);
+        }
+        row.name = readName(scan.getInt(at + nameLength), scan.getLong(at + nameOffset));
+        cache.put(slot, row);
+        return row;
+    }
+
+    /**
+     * Gets a clean row to fill, reusing the last one evicted.
+     */
+    private Row newRow() {
+        Row row = spare == null ? new Row(moduleCount()) : spare;
+        spare = null;
+        row.nameKey = null;
+        row.dirty = false;
+        row.nameChanged = false;
+        return row;
+    }
+
+    /**
+     * Makes sure consecutive records are in the read-ahead buffer, reading them and the
+     * records after them if they are not.
+     * @return the position of the first record in the buffer.
+     */
+    private int scanned(int from, int count) {
+        if (scan == null || from < scanFrom || from + count > scanFrom + scanCount) {
+            scanCount = Math.max(count, READ_AHEAD_ROWS);
+            scanFrom = from;
+            scan = read(from, scanCount, scan);
+        }
+        return (from - scanFrom) * recordBytes;
+    }
+
+    private void markDirty(Row row) {
+        if (!row.dirty) {
+            row.dirty = true;
+            dirtyRows++;
+        }
+    }
+
+    /**
+     * Writes a row to its record, appending its name to the names file if it changed.
+     * Unchanged names are left where they are, so only the ID key and marks are written.
+     */
+    private void writeBack(int slot, Row row) {
+        if (!row.dirty) {
+            return;
+        }
+        record.clear();
+        record.putInt(ID_KEY, row.idKey);
+        for (int m = 0; m < row.marks.length; m++) {
+            record.putDouble(MARKS + 8 * m, row.marks[m]);
+        }
+        if (row.nameChanged) {
+            String name = row.name == null ? "" : row.name;
+            record.putInt(nameLength, name.length());
+            record.putLong(nameOffset, appendName(name));
+            row.nameChanged = false;
+        } else {
+            record.limit(nameLength);
+        }
+        writeRecord(slot, record);
+        row.dirty = false;
+        dirtyRows--;
+        Metrics.recordCacheWriteBack();
+    }
+
+    private void writeRecord(int slot, ByteBuffer buffer) {
+        long position = (long) slot * recordBytes;
+        if (scan != null) {
+            // Copy what overlaps the records read ahead
+            long scanStart = (long) scanFrom * recordBytes;
+            long start = Math.max(position, scanStart);
+            long end = Math.min(position + buffer.remaining(), scanStart + (long) scanCount * recordBytes);
+            if (start < end) {
+                scan.put((int) (start - scanStart), buffer, buffer.position() + (int) (start - position), (int) (end - start));
+            }
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                position += files.rows.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long appendName(String name) {
+        long offset = namesEnd;
+        ByteBuffer chars = nameBuffer(name.length());
+        chars.asCharBuffer().put(name);
+        try {
+            while (chars.hasRemaining()) {
+                namesEnd += files.names.write(chars, namesEnd);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return offset;
+    }
+
+    private String readName(int length, long offset) {
+        if (length == 0) {
+            return "";
+        }
+        ByteBuffer chars = nameBuffer(length);
+        readFully(files.names, chars, offset);
+        chars.flip();
+        char[] name = new char[length];
+        chars.asCharBuffer().get(name);
+        return new String(name);
+    }
+
+    /**
+     * Gets the buffer for the characters of one name, cleared with room for exactly that name.
+     */
+    private ByteBuffer nameBuffer(int length) {
+        if (nameBuffer.capacity() < 2 * length) {
+            nameBuffer = ByteBuffer.allocateDirect(2 * length).order(ByteOrder.nativeOrder());
+        }
+        nameBuffer.clear();
+        nameBuffer.limit(2 * length);
+        return nameBuffer;
+    }
+
+    /**
+     * Reads consecutive records. Records past the end of the rows file read as zeros.
+     * @param into a buffer to reuse, or null.
+     */
+    private ByteBuffer read(int from, int count, ByteBuffer into) {
+        int bytes = count * recordBytes;
+        ByteBuffer buffer = into != null && into.capacity() >= bytes
+                ? into : ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        buffer.clear();
+        buffer.limit(bytes);
+        readFully(files.rows, buffer, (long) from * recordBytes);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Fills the rest of a buffer from a file, stopping early at the end of the file.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return;
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies the names still in use to a new names file once the old one has doubled.
+     */
+    private void compactIfDue() {
+        if (namesEnd < compactAt) {
+            return;
+        }
+        flush();
+        try {
+            FileChannel names = open(directory, ".names");
+            long end = 0;
+            long records = Math.min(rows, files.rows.size() / recordBytes);
+            ByteBuffer block = null;
+            for (int from = 0; from < records; from += SCAN_ROWS) {
+                int count = (int) Math.min(SCAN_ROWS, records - from);
+                block = read(from, count, block);
+                for (int i = 0; i < count; i++) {
+                    int length = block.getInt(i * recordBytes + nameLength);
+                    ByteBuffer chars = ByteBuffer.allocate(2 * length);
+                    readFully(files.names, chars, block.getLong(i * recordBytes + nameOffset));
+                    chars.flip();
+                    block.putLong(i * recordBytes + nameOffset, end);
+                    while (chars.hasRemaining()) {
+                        end += names.write(chars, end);
+                    }
+                }
+                writeRecord(from, block);
+            }
+            files.names.close();
+            files.names = names;
+            namesEnd = end;
+            compactAt = Math.max(MIN_COMPACT_BYTES, 2 * end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileChannel open(Path directory, String suffix) throws IOException {
+        Path file = Files.createTempFile(directory, "students", suffix);
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    private static void transfer(FileChannel from, long bytes, FileChannel to) throws IOException {
+        long position = 0;
+        while (position < bytes) {
+            position += from.transferTo(position, bytes - position, to);
+        }
+    }
+}
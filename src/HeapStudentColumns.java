@@ -0,0 +1,129 @@
+/**
+ * Student storage on the Java heap.
+ * Each field is kept in its own primitive array indexed by slot, with one double[] per module.
+ * Names and their case-folded keys are Strings, shared when folding does not change the name.
+ */
+class HeapStudentColumns extends StudentColumns {
+    private int[] idKeys;
+    private String[] names;
+    private String[] nameKeys; // Case-folded names used for sorting
+    private final double[][] marks; // One column per module
+
+    /**
+     * Constructor to create storage with room for a number of rows.
+     * @param rows number of rows to allocate.
+     * @param modules number of modules each student has marks for.
+     */
+    HeapStudentColumns(int rows, int modules) {
+        super(modules);
+        idKeys = new int[rows];
+        names = new String[rows];
+        nameKeys = new String[rows];
+        marks = new double[modules][rows];
+    }
+
+    @Override
+    public int rows() {
+        return idKeys.length;
+    }
+
+    @Override
+    public void ensureRows(int rows) {
+        if (rows <= idKeys.length) {
+            return;
+        }
+        idKeys = java.util.Arrays.copyOf(idKeys, rows);
+        names = java.util.Arrays.copyOf(names, rows);
+        nameKeys = java.util.Arrays.copyOf(nameKeys, rows);
+        for (int m = 0; m < marks.length; m++) {
+            marks[m] = java.util.Arrays.copyOf(marks[m], rows);
+        }
+    }
+
+    @Override
+    public int idKey(int slot) {
+        return idKeys[slot];
+    }
+
+    @Override
+    public String name(int slot) {
+        return names[slot];
+    }
+
+    @Override
+    public void setName(int slot, String name) {
+        names[slot] = name;
+        nameKeys[slot] = collationKey(name);
+    }
+
+    @Override
+    public String nameKey(int slot) {
+        return nameKeys[slot];
+    }
+
+    @Override
+    public double mark(int module, int slot) {
+        return marks[module][slot];
+    }
+
+    @Override
+    public void setMark(int module, int slot, double mark) {
+        marks[module][slot] = mark;
+    }
+
+    @Override
+    public void readMarks(int module, int from, int count, double[] into) {
+        System.arraycopy(marks[module], from, into, 0, count);
+    }
+
+    @Override
+    public double total(int slot) {
+        double total = 0;
+        for (int m = 0; m < marks.length; m++) {
+            total += marks[m][slot];
+        }
+        return total;
+    }
+
+    @Override
+    public void set(int slot, int idKey, String name) {
+        idKeys[slot] = idKey;
+        setName(slot, name);
+        for (int m = 0; m < marks.length; m++) {
+            marks[m][slot] = 0;
+        }
+    }
+
+    @Override
+    public void copyFrom(int slot, StudentColumns source, int sourceSlot) {
+        if (!(source instanceof HeapStudentColumns)) {
+            super.copyFrom(slot, source, sourceSlot);
+            return;
+        }
+        HeapStudentColumns heap = (HeapStudentColumns) source;
+        idKeys[slot] = heap.idKeys[sourceSlot];
+        names[slot] = heap.names[sourceSlot];
+        nameKeys[slot] = heap.nameKeys[sourceSlot];
+        for (int m = 0; m < marks.length; m++) {
+            marks[m][slot] = heap.marks[m][sourceSlot];
+        }
+    }
+
+    @Override
+    public StudentColumns copy(int count) {
+        HeapStudentColumns copy = new HeapStudentColumns(0, marks.length);
+        copy.idKeys = java.util.Arrays.copyOf(idKeys, count);
+        copy.names = java.util.Arrays.copyOf(names, count);
+        copy.nameKeys = java.util.Arrays.copyOf(nameKeys, count);
+        for (int m = 0; m < marks.length; m++) {
+            copy.marks[m] = java.util.Arrays.copyOf(marks[m], count);
+        }
+        return copy;
+    }
+
+    @Override
+    public void clear(int slot) {
+        names[slot] = null;
+        nameKeys[slot] = null;
+    }
+}
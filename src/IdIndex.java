@@ -0,0 +1,200 @@
+/**
+ * Open-addressing hash index from student ID to a position in the registry.
+ * IDs are stored as primitive int keys (the 7 digits after the 'w'), so lookups
+ * need no boxing and no String hashing.
+ * Not synchronized; get may run alongside a writer when the caller validates the result
+ * afterwards, as StudentRegistry does with its optimistic reads.
+ */
+class IdIndex {
+    private static final int EMPTY = -1; // Marks a free bucket, never a valid key
+    private static final int NOT_FOUND = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    /**
+     * Constructor to create an index sized for the expected number of students.
+     * @param expectedSize number of students the index should hold without resizing.
+     */
+    public IdIndex(int expectedSize) {
+        int buckets = 16;
+        while (buckets < expectedSize * 2) {
+            buckets <<= 1;
+        }
+        allocate(buckets);
+    }
+
+    /**
+     * Converts a student ID into its int key.
+     * @param id the ID to convert
+     * @return the 7 digit number after the 'w', or -1 if the ID is not in the wXXXXXXX format
+     */
+    static int keyOf(String id) {
+        if (id == null || id.length() != 8 || id.charAt(0) != 'w') {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 1; i < 8; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    /**
+     * Converts an int key back into a student ID.
+     * @param key the 7 digit number of the ID
+     * @return the ID in the wXXXXXXX format
+     */
+    static String idOf(int key) {
+        char[] id = new char[8];
+        id[0] = 'w';
+        for (int i = 7; i > 0; i--) {
+            id[i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        return new String(id);
+    }
+
+    /**
+     * Gets the position stored for a key.
+     * @param key the int key of the student ID
+     * @return the position, or -1 if the key is not in the index
+     */
+    public int get(int key) {
+        int[] keys = this.keys;
+        int[] values = this.values;
+        int mask = keys.length - 1;
+        int i = bucketOf(key, mask);
+        // Bounded so a lookup racing a writer can never spin forever
+        for (int probes = 0; probes <= mask && keys[i] != EMPTY; probes++) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Checks if a key is in the index.
+     * @param key the int key of the student ID
+     * @return true if the key is present
+     */
+    public boolean contains(int key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * Adds a key or replaces the position stored for it.
+     * @param key the int key of the student ID
+     * @param value the position to store
+     */
+    public void put(int key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int i = bucketOf(key);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    /**
+     * Removes a key from the index.
+     * Later entries of the same probe run are shifted back so no tombstones are needed.
+     * @param key the int key of the student ID
+     * @return the position that was stored, or -1 if the key was not present
+     */
+    public int remove(int key) {
+        int i = bucketOf(key);
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return NOT_FOUND;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+
+        // Backward shift deletion
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = bucketOf(keys[j]);
+            // Move the entry if its home bucket is not between the gap and its current bucket
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Removes every key from the index.
+     */
+    public void clear() {
+        java.util.Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Getter for the number of keys in the index.
+     * @return number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int bucketOf(int key) {
+        return bucketOf(key, mask);
+    }
+
+    /**
+     * Spreads an ID key over the buckets of a table.
+     * @param key the ID key.
+     * @param mask the number of buckets minus one, a power of two minus one.
+     * @return the bucket to start probing at.
+     */
+    static int bucketOf(int key, int mask) {
+        int h = key * 0x9E3779B9; // Fibonacci hashing spreads sequential IDs
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int buckets) {
+        int[] newKeys = new int[buckets];
+        java.util.Arrays.fill(newKeys, EMPTY);
+        // Published filled, so a reader without the lock never sees a table of zero keys
+        values = new int[buckets];
+        keys = newKeys;
+        mask = buckets - 1;
+    }
+
+    private void resize(int buckets) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(buckets);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets that grow with the duration, so any duration up to centuries
+ * fits in a few hundred counters and is known to within 1/SUB_BUCKETS of its value.
+ * Recording only increments counters, so it never allocates or locks and any number of
+ * threads may record at once. Reads are not atomic with respect to concurrent recording.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS; // Buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one duration.
+     * @param nanos the duration in nanoseconds, negative values count as 0.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Getter for the number of recorded durations.
+     * @return the count.
+     */
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Getter for the sum of the recorded durations.
+     * @return the sum in nanoseconds.
+     */
+    long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Getter for the longest recorded duration.
+     * @return the maximum in nanoseconds, 0 if nothing was recorded.
+     */
+    long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     * @param fraction the percentile as a fraction, for example 0.99.
+     * @return the upper end of the bucket holding the percentile, at most the maximum;
+     *         0 if nothing was recorded.
+     */
+    long percentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Finds the bucket of a duration: exact below SUB_BUCKETS, then SUB_BUCKETS buckets for
+     * each power of two.
+     */
+    private static int bucketOf(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos | 1);
+        if (exponent < SUB_BITS) {
+            return (int) nanos;
+        }
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Finds the largest duration that falls in a bucket.
+     */
+    private static long highestOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,129 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts of what happened while loading student details from a file.
+ */
+class LoadSummary {
+    long rows;          // Lines read from the file
+    long loaded;        // Students added to the registry
+    long malformed;     // Lines without exactly an ID, a name and one mark per module
+    long invalidIds;    // Lines with an ID not in the wXXXXXXX format
+    long invalidMarks;  // Lines with a mark that is not a number
+    long duplicates;    // Lines with an ID that is already registered
+    long bytes;         // Bytes read from the file
+    long nanos;         // Time taken to load
+    boolean registryFull; // Loading stopped because there were no seats left
+    Path rejectsFile;   // Where the rejected lines were written, null if none were
+    final List<Stage> stages = new ArrayList<>(); // Counts of each stage of the loader, in order
+
+    /**
+     * Counts of one stage of a loader.
+     */
+    static class Stage {
+        final String name;
+        long rows;     // Lines the stage handled
+        long rejected; // Lines the stage rejected
+        long nanos;    // Time spent working, not waiting for the other stages
+
+        /**
+         * Constructor for the counts of a stage.
+         * @param name name of the stage.
+         */
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Calculates how fast the stage would go if it never had to wait.
+         * @return lines handled per second of work.
+         */
+        long rowsPerSecond() {
+            return nanos == 0 ? 0 : (long) (rows * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * Adds the counts of a stage.
+     * @param name name of the stage.
+     * @return the counts, for the stage to update.
+     */
+    Stage stage(String name) {
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Adds one rejected or accepted line to the counts.
+     * @param status the result of StudentRowParser.parse.
+     */
+    void count(int status) {
+        rows++;
+        switch (status) {
+            case StudentRowParser.MALFORMED:
+                malformed++;
+                break;
+            case StudentRowParser.INVALID_ID:
+                invalidIds++;
+                break;
+            case StudentRowParser.INVALID_MARKS:
+                invalidMarks++;
+                break;
+            case StudentRowParser.DUPLICATE:
+                duplicates++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Getter for the number of lines that were not loaded.
+     * @return number of rejected lines.
+     */
+    long rejected() {
+        return malformed + invalidIds + invalidMarks + duplicates;
+    }
+
+    /**
+     * Calculates the loading speed.
+     * @return lines read per second.
+     */
+    long rowsPerSecond() {
+        return nanos == 0 ? 0 : rows * 1_000_000_000L / nanos;
+    }
+
+    /**
+     * Describes the counts for printing.
+     * @return the summary text.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("Loaded ").append(loaded).append(" of ").append(rows).append(" rows")
+                .append(String.format(" in %.3f s (%d rows/s, %d bytes)", nanos / 1e9, rowsPerSecond(), bytes));
+        if (rejected() > 0) {
+            text.append("\nSkipped: ")
+                    .append(invalidIds).append(" invalid ID, ")
+                    .append(invalidMarks).append(" invalid marks, ")
+                    .append(duplicates).append(" duplicate ID, ")
+                    .append(malformed).append(" invalid format");
+        }
+        if (rejectsFile != null) {
+            text.append("\nRejected rows were written to ").append(rejectsFile);
+        }
+        if (registryFull) {
+            text.append("\nStopped early: no available seats.");
+        }
+        if (!stages.isEmpty()) {
+            text.append(String.format("\n%-10s %12s %12s %10s %14s", "Stage", "Rows", "Rejected", "Busy s", "Rows/s"));
+            for (Stage stage : stages) {
+                text.append(String.format("\n%-10s %12d %12d %10.3f %14d",
+                        stage.name, stage.rows, stage.rejected, stage.nanos / 1e9, stage.rowsPerSecond()));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -2,19 +2,83 @@
 //Import packages
 import java.util.Scanner;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.Writer;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.InputMismatchException;
+import java.util.List;
 
 public class Main {
-    private static final int CAPACITY = 100; // Maximum number of students declared as 100 in the array
-    private static final Student[] students = new Student[CAPACITY]; // Array to store student details
-    private static int studentCount = 0; // Number of students registered
+    private static StudentRegistry registry; // Registered students
+    private static final int PAGE_SIZE = 20; // Number of students shown per page when viewing all students
+    private static final Path SNAPSHOT_FILE = Paths.get("student_details.snap"); // Binary copy of the registry
+    private static final Path REJECTS_FILE = Paths.get("student_details.rejects"); // Lines the last load skipped
+    private static final Path ARCHIVE_FILE = Paths.get("student_details.archive"); // Compressed copy of the registry
+    private static MutationJournal journal; // Records every change when --journal is given, otherwise null
+    private static int shards; // Number of shard files the student details are stored in, 0 for one file
+    private static List<Path> shardDirectories; // Where the shards go; the first holds the manifest
+    private static int archiveLevel; // Compression level of the archive file
+    private static volatile StudentSnapshot loadingSnapshot; // Answers lookups by ID while it is copied into the registry
+    private static Thread snapshotLoader; // Copies a snapshot into the registry in the background, or null
 
     /**
      * Main method to run the program.
+     * Accepts --capacity=N to change the maximum number of students, --modules=N to change the
+     * number of modules, --storage=offheap to keep the students outside the Java heap,
+     * --storage=disk to keep them in files in --store-dir=DIR with --cache-rows=N of them in
+     * memory, and --journal[=DIR] to record every change in a journal that is replayed on the
+     * next start.
+     * With --shards=N the student details are stored in and loaded from N shard files spread
+     * over --shard-dirs=DIR[,DIR...] instead of student_details.txt, and --archive-level=N sets
+     * the compression of the archive file from 0 (none) to 9.
+     * With --batch[=FILE] the commands are read from a file or standard input instead of menus.
+     * With --serve[=PORT] the registry is served to local clients, and --connect[=PORT] is the
+     * client, which runs a load test when --clients=N is given.
+     * With --metrics[=FILE] the timings of every operation are written to a JSON file every
+     * --metrics-interval=SECONDS.
      */
     public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+            registry = newRegistry(options);
+            shards = options.shards;
+            shardDirectories = options.shardDirectories;
+            archiveLevel = options.archiveLevel;
+        } catch (IllegalArgumentException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        if (options.connectPort >= 0) {
+            runClient(options);
+            return;
+        }
+        if (options.metricsFile != null) {
+            Metrics.startDump(options.metricsFile, options.metricsInterval);
+        }
+        if (options.journalDirectory != null) {
+            try {
+                journal = MutationJournal.open(options.journalDirectory, registry, options.fsync, options.compactBytes);
+            } catch (IOException e) {
+                System.err.println("Error opening journal. " + e.getMessage());
+                return;
+            }
+        }
+        if (options.batch) {
+            runBatch(options.batchFile);
+            return;
+        }
+        if (options.servePort >= 0) {
+            runServer(options.servePort);
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         while (true) {
             showMenu();
@@ -32,6 +96,11 @@ public class Main {
                 continue;
             }
 
+            if (choice != 4) {
+                // Only lookups by ID are answered while a snapshot is loading
+                awaitSnapshotLoad();
+            }
+
             // Process the choice
             switch (choice) {
                 case 1:
@@ -51,25 +120,49 @@ public class Main {
                     findStudent(findId);
                     break;
                 case 5:
-                    storeStudentDetailsToFile();
+                    if (shards > 0) {
+                        storeShards();
+                    } else {
+                        storeStudentDetailsToFile();
+                    }
                     break;
                 case 6:
-                    loadStudentDetails();
+                    if (shards > 0) {
+                        loadShards();
+                    } else {
+                        loadStudentDetails();
+                    }
                     break;
                 case 7:
-                    viewStudentsSortedByName();
+                    viewStudentsSortedByName(scanner);
                     break;
                 case 8:
                     handleAdditionalControls(scanner);
                     break;
                 case 9:
+                    closeJournal();
+                    Metrics.stopDump();
                     System.out.println("Exiting the system.");
 
                     return;
                 default:
                     System.out.println("Invalid choice. Please enter a value between 1 and 9.");
             }
+            commitJournal();
+        }
+    }
+
+    /**
+     * Creates the registry with the storage chosen by the options.
+     * @param options the parsed options
+     * @return an empty registry
+     */
+    private static StudentRegistry newRegistry(Options options) {
+        if (options.storage == StudentColumns.Storage.DISK) {
+            return new StudentRegistry(options.capacity,
+                    new DiskStudentColumns(0, options.modules, options.storeDirectory, options.cacheRows));
         }
+        return new StudentRegistry(options.capacity, options.modules, options.storage);
     }
 
     /**
@@ -100,19 +193,18 @@ public class Main {
      * If there are no available seats, it displays a message indicating that all seats are booked.
      */
     private static void checkAvailableSeats() {
-        int availableSeats = CAPACITY - studentCount;
+        int availableSeats = registry.availableSeats();
         System.out.println("Available seats: " + availableSeats);
     }
 
     /**
      * Registers a new student with the given ID and name.
      * If the ID is already taken, it displays an error message.
-     * If the ID is valid, it creates a new Student object and adds it to the students array.
-     * It also updates the studentCount variable.
+     * If the ID is valid, it creates a new Student object and adds it to the registry.
      * @param scanner the Scanner object to read user input
      */
     private static void registerStudent(Scanner scanner) {
-        if (studentCount >= CAPACITY) {
+        if (registry.isFull()) {
             System.out.println("No available seats.");
             return;
         }
@@ -139,9 +231,14 @@ public class Main {
             return;
         }
 
-        Student student = new Student(id, name);
-        students[studentCount] = student;
-        studentCount++;
+        // The ID is checked again as it is added, in case it was taken in the meantime
+        long start = System.nanoTime();
+        boolean added = registry.add(new Student(id, name, registry.moduleCount()));
+        Metrics.record(Metrics.Operation.REGISTER, start);
+        if (!added) {
+            System.out.println(registry.isFull() ? "No available seats." : "Student ID already exists.");
+            return;
+        }
         System.out.println("Student registered successfully.");
     }
 
@@ -152,15 +249,7 @@ public class Main {
      * @return true if it meets the criteria
      */
     private static boolean isValidID(String id) {
-        if (id.length() != 8 || !id.startsWith("w")) {
-            return false;
-        }
-        for (int i = 1; i < id.length(); i++) {
-            if (!Character.isDigit(id.charAt(i))) {
-                return false;
-            }
-        }
-        return true;
+        return IdIndex.keyOf(id) >= 0;
     }
 
 
@@ -171,12 +260,7 @@ public class Main {
      * @return true if the ID is a duplicate, false otherwise
      */
     private static boolean isDuplicateId(String id) {
-        for (int i = 0; i < studentCount; i++) {
-            if (students[i].getStudentID().equals(id)) {
-                return true;
-            }
-        }
-        return false;
+        return registry.contains(id);
     }
 
     /**
@@ -193,174 +277,240 @@ public class Main {
     /**
      * Deletes a student with the given ID.
      * If the ID is not found, it displays an error message.
-     * If the ID is found, it shifts the elements to the left to fill the gap and deletes the student.
+     * If the ID is found, it removes the student from the registry.
      * @param id the ID of the student to delete
      */
     private static void deleteStudent(String id) {
-        for (int i = 0; i < studentCount; i++) {
-            if (students[i].getStudentID().equals(id)) {
-                // Shift elements to the left to fill the gap
-                for (int j = i; j < studentCount - 1; j++) {
-                    students[j] = students[j + 1];
-                }
-                studentCount--;
-                students[studentCount] = null;
-                System.out.println("Student deleted successfully.");
-                return;
-            }
+        long start = System.nanoTime();
+        Student removed = registry.remove(id);
+        Metrics.record(Metrics.Operation.DELETE, start);
+        if (removed == null) {
+            System.out.println("Student with that ID not found.");
+            return;
         }
-        System.out.println("Student with that ID not found.");
+        System.out.println("Student deleted successfully.");
     }
 
     /**
      * Finds a student with the given ID.
      * If the ID is not found, it displays an error message.
-     * If the ID is found, it displays the details of the student.
+     * If the ID is found, it displays the details of the student and their rank by average marks.
      *
      * @param id the ID of the student to find
      */
     private static void findStudent(String id) {
-        for (int i = 0; i < studentCount; i++) {
-            if (students[i].getStudentID().equals(id)) {
-                students[i].displayDetails();
+        long start = System.nanoTime();
+        Student student = registry.find(id);
+        StudentSnapshot loading = loadingSnapshot;
+        if (student == null && loading != null) {
+            try {
+                student = loading.find(id);
+            } catch (IOException e) {
+                System.out.println("Error occurred while reading snapshot. " + e.getMessage());
                 return;
             }
         }
-        System.out.println("Student not found.");
+        if (student != null) {
+            student.displayDetails();
+            if (loading != null) {
+                // Ranking now would index the students loaded so far, slowing the rest of the load
+                System.out.println("    Rank: known once the snapshot is loaded");
+            } else {
+                System.out.println("    Rank: " + registry.rankOf(id) + " of " + registry.size());
+            }
+        } else {
+            System.out.println("Student not found.");
+        }
+        Metrics.record(Metrics.Operation.FIND, start);
     }
 
     /**
      * Stores the student details into a file.
      * If the file already exists, it overwrites the existing data.
      * If the file does not exist, it creates a new file.
+     * @return false if the file could not be written.
      */
-    private static void storeStudentDetailsToFile() {
-        if (studentCount == 0) {
+    static boolean storeStudentDetailsToFile() {
+        if (registry.size() == 0) {
             System.out.println("No student details to store.");
-            return;
+            return true;
         }
-        File file = new File("student_details.txt");
-        try (FileWriter fileWriter = new FileWriter(file)) {
-            for (int i = 0; i < studentCount; i++) {
-                Module marks = students[i].getModuleMarks();
-                fileWriter.write(students[i].getStudentID() + ","
-                        + students[i].getStudentName() + ","
-                        + marks.getMark1() + ","
-                        + marks.getMark2() + ","
-                        + marks.getMark3() + "\n");
-            }
+        try {
+            long start = System.nanoTime();
+            writeStudentDetails(registry, new File("student_details.txt"));
+            Metrics.record(Metrics.Operation.STORE, start);
             System.out.println("Student details stored successfully.");
+            return true;
         } catch (IOException e) {
             System.err.println("Error writing to file. Try again");
+            return false;
+        }
+    }
+
+    /**
+     * Writes the details of every student to a file, one comma separated line each, after a
+     * header line giving the number of modules.
+     *
+     * @param registry the registry to write
+     * @param file the file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    static void writeStudentDetails(StudentRegistry registry, File file) throws IOException {
+        // UTF-8 whatever the platform charset, as StudentRowParser reads names back as UTF-8
+        // Written from a copy, so deletes on other threads cannot move students while writing
+        StudentColumns columns = registry.copyColumns();
+        try (Writer fileWriter = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            fileWriter.write(StudentRowParser.HEADER_PREFIX + columns.moduleCount() + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int slot = 0; slot < columns.rows(); slot++) {
+                line.setLength(0);
+                line.append(IdIndex.idOf(columns.idKey(slot))).append(',').append(columns.name(slot));
+                for (int m = 0; m < columns.moduleCount(); m++) {
+                    line.append(',').append(columns.mark(m, slot));
+                }
+                fileWriter.write(line.append('\n').toString());
+            }
         }
     }
 
     /**
      * Loads the student details from a file.
      * If the file does not exist, it displays an error message.
-     * If the file is empty, it displays a message indicating that no data was found.
-     * If the file is not empty, it loads the data into the students array.
+     * Otherwise it streams the file into the registry and displays how many rows were loaded,
+     * how many were skipped for each reason and how fast each stage of the loader went.
+     * Skipped rows are written to the rejects file with the reason.
+     * Large files are parsed in parallel chunks.
+     * @return false if there is no file to load or it could not be read.
      */
-    private static void loadStudentDetails() {
+    static boolean loadStudentDetails() {
         File file = new File("student_details.txt");
         if (!file.exists()) {
             System.out.println("No data file found to load.");
-            return;
+            return false;
         }
-        try (Scanner fileReader = new Scanner(file)) {
-            while (fileReader.hasNextLine() && studentCount < CAPACITY) {
-                String line = fileReader.nextLine();
-                String[] studentDetails = line.split(",");
-                if (studentDetails.length == 5) {
-                    String id = studentDetails[0];
-                    String name = studentDetails[1];
-
-                    // Checks if it is a valid ID
-                    if (!isValidID(id)) {
-                        System.out.println("Invalid ID format found in file: " + id + "and skipped");
-                        continue;
-                    }
-
-                    // Initializing marks
-                    double mark1;
-                    double mark2;
-                    double mark3;
-
-                    // Check if the Marks are Double values
-                    try {
-                        // Converting String values into Integer values
-                        mark1 = Double.parseDouble(studentDetails[2]);
-                        mark2 = Double.parseDouble(studentDetails[3]);
-                        mark3 = Double.parseDouble(studentDetails[4]);
-                    } catch (NumberFormatException e) {
-                        System.out.println("Invalid marks found in file for ID: " + id);
-                        continue;
-                    }
-
-                    // Checks if the ID is not a duplicate
-                    if (!isDuplicateId(id)) {
-                        Student student = new Student(id, name);
-                        student.setModuleMarks(mark1, mark2, mark3);
-                        students[studentCount] = student;
-                        studentCount++;
-                    } else {
-                        System.out.println("Duplicate ID found in file: " + id + " and skipped");
-                    }
-                } else {
-                    System.out.println("Invalid data in file. Please check the file format. File name: " + file.getName());
-                }
-            }
+        try {
+            long start = System.nanoTime();
+            LoadSummary summary = file.length() >= ParallelStudentLoader.MIN_PARALLEL_BYTES
+                    ? ParallelStudentLoader.load(file.toPath(), registry, REJECTS_FILE)
+                    : StudentFileLoader.load(file.toPath(), registry, REJECTS_FILE);
+            Metrics.record(Metrics.Operation.LOAD, start);
+            Metrics.recordLoad(summary);
             System.out.println("Student details loaded successfully.");
+            System.out.println(summary);
+            return true;
         } catch (IOException e) {
             System.out.println("Error occurred while loading file. " + e.getMessage());
+            return false;
         }
     }
 
     /**
      * Displays the details of all students sorted by their names in ascending order.
-     * This method first creates an array of student indexes, sorts them by name, and then
-     * displays the details of each student in the sorted order.
+     * The students are read from the name index one page at a time.
+     * If there is more than one page, it asks which page to show next.
+     *
+     * @param scanner the Scanner object to read user input
      */
-    private static void viewStudentsSortedByName() {
-        if (studentCount == 0) {
+    private static void viewStudentsSortedByName(Scanner scanner) {
+        if (registry.size() == 0) {
             System.out.println("No student information is currently available to display.");
             return;
         }
+        showPages(scanner, Metrics.Operation.VIEW_BY_NAME, (from, writer) -> {
+            registry.forEachByName(from, PAGE_SIZE, writer::shortDetails);
+            return registry.size();
+        });
+    }
 
-        int[] sortedIndexes = new int[studentCount];
-        for (int i = 0; i < studentCount; i++) {
-            sortedIndexes[i] = i;
+    /**
+     * Searches students by name, ignoring case, and displays the matches sorted by name.
+     * The name can either start with the text or contain it anywhere.
+     * The matches are shown one page at a time like viewStudentsSortedByName.
+     *
+     * @param scanner the Scanner object to read user input
+     */
+    private static void searchStudentsByName(Scanner scanner) {
+        System.out.print("Enter the name or part of it: ");
+        String text = scanner.nextLine().trim();
+        if (text.isEmpty()) {
+            System.out.println("Invalid search. The text should not be empty.");
+            return;
         }
-
-        sortIndexByName(sortedIndexes);
-        for (int index : sortedIndexes) {
-            students[index].displayDetailsShort();
+        System.out.print("Match (1) the start of the name or (2) anywhere in the name: ");
+        String mode = scanner.nextLine().trim();
+        if (!mode.equals("1") && !mode.equals("2")) {
+            System.out.println("Invalid choice. Please enter 1 or 2.");
+            return;
+        }
+        boolean anywhere = mode.equals("2");
+        int matches = showPages(scanner, Metrics.Operation.SEARCH, (from, writer) -> anywhere
+                ? registry.forEachNameContaining(text, from, PAGE_SIZE, writer::shortDetails)
+                : registry.forEachNameStartingWith(text, from, PAGE_SIZE, writer::shortDetails));
+        if (matches == 0) {
+            System.out.println("No students found.");
         }
     }
 
+    /**
+     * Writes one page of a listing.
+     */
+    private interface PageWriter {
+        /**
+         * Writes the students of a page.
+         * @param from number of students before the page.
+         * @param writer where the students are written.
+         * @return the number of students in the whole listing.
+         */
+        int write(int from, ReportWriter writer);
+    }
 
     /**
-     * Sorts an array of student indexes based on the students' names in ascending order.
-     * This method uses the bubble sort algorithm to sort the indexes.
+     * Shows the first page of a listing, then asks for the next page until the user goes back.
+     * Each page is timed as the given operation.
      *
-     * @param indexes an array of indexes representing the students to be sorted.
-     */
-    private static void sortIndexByName(int[] indexes) {
-        int n = indexes.length;
-        for (int i = 0; i < n - 1; i++) {
-            for (int j = 0; j < n - i - 1; j++) {
-                if (students[indexes[j]].getStudentName().compareToIgnoreCase(students[indexes[j + 1]].getStudentName()) > 0) {
-                    int temp = indexes[j];
-                    indexes[j] = indexes[j + 1];
-                    indexes[j + 1] = temp;
-                }
+     * @param scanner the Scanner object to read user input
+     * @param operation the operation the pages are timed as
+     * @param pageWriter writes the pages
+     * @return the number of students in the listing
+     */
+    private static int showPages(Scanner scanner, Metrics.Operation operation, PageWriter pageWriter) {
+        int page = 1;
+        while (true) {
+            long start = System.nanoTime();
+            ReportWriter writer = new ReportWriter(System.out);
+            int total = pageWriter.write((page - 1) * PAGE_SIZE, writer);
+            writer.flush();
+            Metrics.record(operation, start);
+            int pages = (total + PAGE_SIZE - 1) / PAGE_SIZE;
+            if (pages <= 1) {
+                return total;
+            }
+            System.out.println("Page " + page + " of " + pages);
+            System.out.print("Enter page number (0 to go back): ");
+            try {
+                page = scanner.nextInt();
+                scanner.nextLine();  // Consume newline
+            } catch (InputMismatchException e) {
+                scanner.nextLine();  // Clear the invalid input
+                System.out.println("Invalid page number.");
+                continue;
+            }
+            if (page == 0) {
+                return total;
+            }
+            if (page < 1 || page > pages) {
+                System.out.println("Invalid page number. Please enter a value between 1 and " + pages + ".");
+                page = 1;
             }
         }
     }
 
     /**
      * Handles additional controls for managing student information.
-     * This method provides a menu for adding student names and module marks.
+     * This method provides a menu for adding student names and module marks,
+     * generating reports, saving or loading the binary snapshot file, showing the metrics,
+     * searching students by name, generating the analytics report, saving or loading the
+     * compressed archive file and exporting reports to CSV or JSON files.
      *
      * @param scanner the Scanner object for reading user input.
      */
@@ -373,7 +523,15 @@ public class Main {
                 2. Add module marks
                 3. Generate summary report
                 4. Generate complete report
-                5. Back to main menu
+                5. Store snapshot file
+                6. Load snapshot file
+                7. Show metrics
+                8. Search students by name
+                9. Generate analytics report
+                10. Store archive file
+                11. Load archive file
+                12. Export a report to a file
+                13. Back to main menu
                 Enter your choice:\s""");
 
             int choice = -1;  // Default invalid choice
@@ -386,6 +544,9 @@ public class Main {
                 continue;  // Restart the loop to ask for input again
             }
 
+            if (choice != 13) {
+                awaitSnapshotLoad();
+            }
             switch (choice) {
                 case 1:
                     System.out.print("Enter Student ID: ");
@@ -395,7 +556,9 @@ public class Main {
                         System.out.print("Enter Student Name: ");
                         String name = scanner.nextLine();
                         if (isValidStudentName(name)) {
+                            long start = System.nanoTime();
                             student1.setStudentName(name);
+                            Metrics.record(Metrics.Operation.RENAME, start);
                             System.out.println("Student name updated successfully.");
                         } else {
                             System.out.println("Invalid student name. The name should not be empty.");
@@ -411,19 +574,22 @@ public class Main {
                     Student student2 = findStudentByID(id);
                     if (student2 != null) { // Check if student exists
                         try {
-                            System.out.print("Enter Module 1 Marks: ");
-                            double mark1 = scanner.nextDouble();
-                            System.out.print("Enter Module 2 Marks: ");
-                            double mark2 = scanner.nextDouble();
-                            System.out.print("Enter Module 3 Marks: ");
-                            double mark3 = scanner.nextDouble();
+                            double[] marks = new double[registry.moduleCount()];
+                            boolean valid = true;
+                            for (int m = 0; m < marks.length; m++) {
+                                System.out.print("Enter Module " + (m + 1) + " Marks: ");
+                                marks[m] = scanner.nextDouble();
+                                // Validate marks are within a reasonable range of 0 to 100
+                                valid &= marks[m] >= 0 && marks[m] <= 100;
+                            }
                             scanner.nextLine();  // Consume the remaining newline character
 
-                            // Validate marks are within a reasonable range of 0 to 100
-                            if (mark1 < 0 || mark1 > 100 || mark2 < 0 || mark2 > 100 || mark3 < 0 || mark3 > 100) {
+                            if (!valid) {
                                 System.out.println("Invalid marks. Please enter marks between 0 and 100.");
                             } else {
-                                student2.setModuleMarks(mark1, mark2, mark3); // Update marks
+                                long start = System.nanoTime();
+                                student2.setModuleMarks(marks); // Update marks
+                                Metrics.record(Metrics.Operation.MARKS, start);
                                 System.out.println("Module marks updated successfully.");
                             }
                         } catch (InputMismatchException e) {
@@ -444,147 +610,453 @@ public class Main {
                     break;
 
                 case 5:
+                    storeSnapshot();
+                    break;
+
+                case 6:
+                    startSnapshotLoad();
+                    break;
+
+                case 7:
+                    ReportWriter writer = new ReportWriter(System.out);
+                    Metrics.report(writer);
+                    writer.flush();
+                    break;
+
+                case 8:
+                    searchStudentsByName(scanner);
+                    break;
+
+                case 9:
+                    System.out.print("Enter number of top and bottom students to show: ");
+                    try {
+                        int count = scanner.nextInt();
+                        scanner.nextLine();  // Consume the remaining newline character
+                        if (count > 0) {
+                            generateAnalyticsReport(count);
+                        } else {
+                            System.out.println("Invalid number. Please enter a positive number.");
+                        }
+                    } catch (InputMismatchException e) {
+                        System.out.println("Invalid number. Please enter a positive number.");
+                        scanner.nextLine();  // Consume the remaining invalid input
+                    }
+                    break;
+
+                case 10:
+                    storeArchive();
+                    break;
+
+                case 11:
+                    loadArchive();
+                    break;
+
+                case 12:
+                    System.out.print("Report to export: (1) summary, (2) complete or (3) sorted by name: ");
+                    String reportChoice = scanner.nextLine().trim();
+                    System.out.print("Format: (1) CSV or (2) JSON: ");
+                    String formatChoice = scanner.nextLine().trim();
+                    ReportExporter.Report[] reports = ReportExporter.Report.values();
+                    ReportExporter.Format[] formats = ReportExporter.Format.values();
+                    int reportIndex = reportChoice.length() == 1 ? reportChoice.charAt(0) - '1' : -1;
+                    int formatIndex = formatChoice.length() == 1 ? formatChoice.charAt(0) - '1' : -1;
+                    if (reportIndex < 0 || reportIndex >= reports.length || formatIndex < 0 || formatIndex >= formats.length) {
+                        System.out.println("Invalid choice. Please try again.");
+                    } else {
+                        exportReport(reports[reportIndex], formats[formatIndex], null);
+                    }
+                    break;
+
+                case 13:
                     return;  // Back to main menu
 
                 default:
                     System.out.println("Invalid choice. Please try again.");
             }
+            commitJournal();
         }
     }
 
     /**
-     * Finds and returns a student by their unique ID.
+     * Runs the commands of a file or standard input without showing menus, then exits.
+     * The exit status is 1 if any command failed.
      *
-     * @param id The ID of the student to be checked.
-     * @return Returns the matching student if found, null otherwise.
+     * @param file the commands file, or null to read standard input
      */
-    private static Student findStudentByID(String id) {
-        for (int i = 0; i < studentCount; i++) {
-            if (students[i].getStudentID().equals(id)) {
-                return students[i];
-            }
+    private static void runBatch(Path file) {
+        BatchRunner runner = new BatchRunner(registry, journal);
+        try (BufferedReader in = file == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                : Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            runner.run(in);
+        } catch (IOException e) {
+            System.err.println("Error running batch. " + e.getMessage());
+            runner.failed++;
+        }
+        closeJournal();
+        Metrics.stopDump();
+        if (runner.failed > 0) {
+            System.exit(1);
         }
-        return null;
     }
 
     /**
-     * Generates a summary report of the student registration details.
-     * This method iterates through all the students and calculates the total number of students,
-     * the number of students scoring more than 40 marks in all modules, and the number of students scoring more than 40 marks in each module.
-     */
-    private static void generateSummaryReport() {
-        int totalStudents = studentCount;
-        int studentsAbove40InAllModules = 0;
-
-        // Declaring passModule1, passModule2, passModule3 as 0
-        int passModule1 = 0;
-        int passModule2 = 0;
-        int passModule3 = 0;
-
-        for (int i = 0; i < studentCount; i++) {
-            double marks1 = students[i].getModuleMarks().getMark1();
-            double marks2 = students[i].getModuleMarks().getMark2();
-            double marks3 = students[i].getModuleMarks().getMark3();
-
-            // Checking if marks are greater than 40 in each module
-            if (marks1 > 40) {
-                passModule1++;
-            }
-            if (marks2 > 40) {
-                passModule2++;
-            }
-            if (marks3 > 40) {
-                passModule3++;
-            }
+     * Serves the registry to local clients until the process is stopped.
+     * The journal, if any, is closed and the metrics file written by a shutdown hook.
+     *
+     * @param port the port to listen on
+     */
+    private static void runServer(int port) {
+        try (StudentServer server = new StudentServer(registry, journal, port)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                closeJournal();
+                Metrics.stopDump();
+            }));
+            System.out.println("Serving " + registry.size() + " students on 127.0.0.1:" + server.port());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Error running server. " + e.getMessage());
+        }
+    }
 
-            // Checking if marks are greater than 40 in all modules
-            if (marks1 > 40 && marks2 > 40 && marks3 > 40) {
-                studentsAbove40InAllModules++;
+    /**
+     * Sends commands to a running server: a load test with --clients, otherwise the lines of
+     * standard input.
+     *
+     * @param options the parsed options
+     */
+    private static void runClient(Options options) {
+        try {
+            if (options.clients > 0) {
+                StudentClient.loadTest(options.connectPort, options.clients, options.requests, options.modules);
+            } else {
+                StudentClient.forward(options.connectPort,
+                        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16), System.out);
             }
+        } catch (IOException e) {
+            System.err.println("Error talking to server. " + e.getMessage());
         }
+    }
 
-        System.out.println("Summary Report:");
+    /**
+     * Makes the changes of the last action durable in the journal, if journaling is on.
+     */
+    private static void commitJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            System.err.println("Error writing journal. " + e.getMessage());
+        }
+        String error = journal.takeError();
+        if (error != null) {
+            System.err.println(error);
+        }
+    }
 
-        System.out.println("Total student registrations: " + totalStudents);
+    /**
+     * Writes out and closes the journal before exiting, if journaling is on.
+     */
+    private static void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal. " + e.getMessage());
+        }
+    }
 
-        System.out.println("Total students scoring more than 40 marks in Module 1: " + passModule1);
-        System.out.println("Total students scoring more than 40 marks in Module 2: " + passModule2);
-        System.out.println("Total students scoring more than 40 marks in Module 3: " + passModule3);
+    /**
+     * Stores all students into the binary snapshot file.
+     * The CSV file written by option 5 of the main menu is not changed.
+     * @return false if the file could not be written.
+     */
+    static boolean storeSnapshot() {
+        if (registry.size() == 0) {
+            System.out.println("No student details to store.");
+            return true;
+        }
+        try {
+            long start = System.nanoTime();
+            StudentSnapshot.write(registry, SNAPSHOT_FILE);
+            Metrics.record(Metrics.Operation.STORE_SNAPSHOT, start);
+            System.out.println("Snapshot stored successfully.");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot file. " + e.getMessage());
+            return false;
+        }
+    }
 
-        System.out.println("Total students scoring more than 40 marks in all modules: " + studentsAbove40InAllModules);
+    /**
+     * Loads students from the binary snapshot file.
+     * Students whose ID is already registered are skipped.
+     * @return false if there is no file to load or it could not be read.
+     */
+    static boolean loadSnapshot() {
+        if (!Files.exists(SNAPSHOT_FILE)) {
+            System.out.println("No snapshot file found to load.");
+            return false;
+        }
+        long start = System.nanoTime();
+        try (StudentSnapshot snapshot = StudentSnapshot.open(SNAPSHOT_FILE)) {
+            LoadSummary summary = snapshot.loadInto(registry);
+            Metrics.record(Metrics.Operation.LOAD_SNAPSHOT, start);
+            Metrics.recordLoad(summary);
+            System.out.println("Snapshot loaded successfully.");
+            System.out.println(summary);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading snapshot. " + e.getMessage());
+            return false;
+        }
     }
 
     /**
-     * Generates a detailed report of the student registration details.
-     * This method iterates through all the students and calculates the average marks for each module.
-     * It then sorts the students based on their average marks in descending order.
-     * It also displays the student ID, name, and average marks for each student.
+     * Starts loading students from the binary snapshot file in the background.
+     * Until the load is done, students are looked up by ID in the mapped file, and every other
+     * action waits for the load to finish first.
+     * Students whose ID is already registered are skipped.
+     * @return false if there is no file to load or it could not be opened.
      */
-    private static void generateCompleteReport() {
+    static boolean startSnapshotLoad() {
+        if (!Files.exists(SNAPSHOT_FILE)) {
+            System.out.println("No snapshot file found to load.");
+            return false;
+        }
+        long start = System.nanoTime();
+        StudentSnapshot snapshot;
+        try {
+            snapshot = StudentSnapshot.open(SNAPSHOT_FILE);
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading snapshot. " + e.getMessage());
+            return false;
+        }
+        loadingSnapshot = snapshot;
+        snapshotLoader = new Thread(() -> {
+            try (snapshot) {
+                LoadSummary summary = snapshot.loadInto(registry);
+                Metrics.record(Metrics.Operation.LOAD_SNAPSHOT, start);
+                Metrics.recordLoad(summary);
+                System.out.println();
+                System.out.println("Snapshot loaded successfully.");
+                System.out.println(summary);
+            } catch (IOException e) {
+                System.out.println();
+                System.out.println("Error occurred while loading snapshot. " + e.getMessage());
+            } finally {
+                loadingSnapshot = null;
+            }
+        }, "snapshot-loader");
+        snapshotLoader.setDaemon(true);
+        snapshotLoader.start();
+        System.out.println("Loading " + snapshot.size() + " students from the snapshot; students can be found by ID meanwhile.");
+        return true;
+    }
 
-        if (studentCount == 0) {
-            System.out.println("\nNo student information available to display.");
+    /**
+     * Waits for a snapshot loading in the background, if any, to finish.
+     */
+    private static void awaitSnapshotLoad() {
+        Thread loader = snapshotLoader;
+        if (loader == null) {
             return;
         }
-        // Sort the averages and get the sorted indices
-        double[] sortedavg = sort();
-        int[] index = new int[studentCount];
-
-        // Print the detailed report header
-        System.out.println("\nDetailed Report:\n");
-        System.out.printf("%-15s %-20s %-16s %-16s %-16s %-10s %-10s %-10s\n",
-                "Student ID", "Student Name", "Module 1", "Module 2", "Module 3",
-                "Total", "Average", "Grade");
-        System.out.println("--------------------------------------------------------------------------------------------------------------");
-
-        // Find the index of each student's average marks in the sorted array
-        for (int i = 0; i < studentCount; i++) {
-            for (int j = 0; j < studentCount; j++) {
-                if (students[i].getAverageMarks() == sortedavg[j]) {
-                    index[j] = i;
-                    break;
-                }
+        boolean interrupted = false;
+        while (loader.isAlive()) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
         }
+        snapshotLoader = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        // Print the student details in the order of sorted averages
-        for (int i = 0; i < studentCount; i++) {
-            int studentIndex = index[i];
-            String id = students[studentIndex].getStudentID();
-            String name = students[studentIndex].getStudentName();
-            double marks1 = students[studentIndex].getModuleMarks().getMark1();
-            double marks2 = students[studentIndex].getModuleMarks().getMark2();
-            double marks3 = students[studentIndex].getModuleMarks().getMark3();
-            double total = marks1 + marks2 + marks3;
-            double average = total / 3;
-            char grade = students[studentIndex].getGrade(average);
-            System.out.printf("%-15s %-20s %-16.2f %-16.2f %-16.2f %-10.2f %-10.2f %-10c\n", id, name, marks1, marks2, marks3, total, average, grade);
+    /**
+     * Stores the student details in shard files, written in parallel, and replaces the
+     * manifest in the first shard directory. Without --shards there is one shard per core.
+     * @return false if the files could not be written.
+     */
+    static boolean storeShards() {
+        if (registry.size() == 0) {
+            System.out.println("No student details to store.");
+            return true;
+        }
+        int count = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        try {
+            long start = System.nanoTime();
+            int students = StudentShards.save(registry, count, shardDirectories);
+            Metrics.record(Metrics.Operation.STORE_SHARDS, start);
+            System.out.println("Student details stored successfully: " + students + " students in " + count
+                    + (count == 1 ? " shard." : " shards."));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing shard files. " + e.getMessage());
+            return false;
         }
     }
 
-    private static double[] sort() {
-        double[] average = new double[studentCount];
+    /**
+     * Loads the student details from the shard files listed by the manifest in the first
+     * shard directory, whatever number of shards it lists.
+     * Students whose ID is already registered are skipped.
+     * @return false if there is no file to load or it could not be read.
+     */
+    static boolean loadShards() {
+        Path directory = shardDirectories.get(0);
+        if (!Files.exists(directory.resolve(StudentShards.MANIFEST_NAME))) {
+            System.out.println("No shard files found to load.");
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            LoadSummary summary = StudentShards.load(directory, registry);
+            Metrics.record(Metrics.Operation.LOAD_SHARDS, start);
+            Metrics.recordLoad(summary);
+            System.out.println("Student details loaded successfully.");
+            System.out.println(summary);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading shard files. " + e.getMessage());
+            return false;
+        }
+    }
 
-        // Fill the array with average marks
-        for (int i = 0; i < studentCount; i++) {
-            if (students[i].getAverageMarks() != 0) {
-                average[i] = students[i].getAverageMarks();
-            }
+    /**
+     * Stores all students into the compressed archive file.
+     * The CSV and snapshot files are not changed.
+     * @return false if the file could not be written.
+     */
+    static boolean storeArchive() {
+        if (registry.size() == 0) {
+            System.out.println("No student details to store.");
+            return true;
         }
+        try {
+            long start = System.nanoTime();
+            StudentArchive.write(registry, ARCHIVE_FILE, archiveLevel);
+            Metrics.record(Metrics.Operation.STORE_ARCHIVE, start);
+            System.out.println("Archive stored successfully (" + Files.size(ARCHIVE_FILE) + " bytes).");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing archive file. " + e.getMessage());
+            return false;
+        }
+    }
 
+    /**
+     * Loads students from the compressed archive file.
+     * Students whose ID is already registered are skipped.
+     * @return false if there is no file to load or it could not be read.
+     */
+    static boolean loadArchive() {
+        if (!Files.exists(ARCHIVE_FILE)) {
+            System.out.println("No archive file found to load.");
+            return false;
+        }
+        try {
+            long start = System.nanoTime();
+            LoadSummary summary = StudentArchive.load(ARCHIVE_FILE, registry);
+            Metrics.record(Metrics.Operation.LOAD_ARCHIVE, start);
+            Metrics.recordLoad(summary);
+            System.out.println("Archive loaded successfully.");
+            System.out.println(summary);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading archive. " + e.getMessage());
+            return false;
+        }
+    }
 
-        // Sort the array in descending order
-        for (int k = 0; k < studentCount - 1; k++) {
-            for (int j = 0; j < studentCount - k - 1; j++) {
-                if (average[j] < average[j + 1]) {
-                    double temp = average[j];
-                    average[j] = average[j + 1];
-                    average[j + 1] = temp;
-                }
-            }
+    /**
+     * Exports a report to a CSV or JSON file, streaming the students in chunks that are
+     * formatted in parallel.
+     *
+     * @param report the report to export
+     * @param format the file format
+     * @param file the file to write, or null for report_NAME.csv or report_NAME.json
+     * @return false if the file could not be written.
+     */
+    static boolean exportReport(ReportExporter.Report report, ReportExporter.Format format, Path file) {
+        Path target = file != null ? file : Paths.get("report_" + report.label() + "." + format.extension());
+        try {
+            long start = System.nanoTime();
+            long rows = ReportExporter.export(registry, report, format, target);
+            Metrics.record(Metrics.Operation.EXPORT_REPORT, start);
+            System.out.printf("Report exported to %s (%d rows in %.3f s).%n", target, rows,
+                    (System.nanoTime() - start) / 1e9);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error exporting report. " + e.getMessage());
+            return false;
         }
+    }
 
-        return average;
+    /**
+     * Finds and returns a student by their unique ID.
+     *
+     * @param id The ID of the student to be checked.
+     * @return Returns the matching student if found, null otherwise.
+     */
+    private static Student findStudentByID(String id) {
+        return registry.find(id);
+    }
+
+    /**
+     * Generates a summary report of the student registration details.
+     * The totals are kept up to date by the registry on every change, so the report does not
+     * scan the students. With assertions enabled (-ea) they are checked against a full recount.
+     */
+    static void generateSummaryReport() {
+        assert registry.verifyAggregates();
+        long start = System.nanoTime();
+        ReportWriter writer = new ReportWriter(System.out);
+        writer.summaryReport(registry.aggregates());
+        writer.flush();
+        Metrics.record(Metrics.Operation.SUMMARY_REPORT, start);
+    }
+
+    /**
+     * Generates a report of the mark distribution: the median, 90th and 10th percentile of
+     * each module and of the averages, a histogram of the marks in bands of 10, and the top
+     * and bottom students by average.
+     * The percentiles and bands come from histograms the registry keeps up to date on every
+     * change, and the top and bottom students from the rank index, so nothing is sorted.
+     * The histograms count tenths of a mark, so the percentiles are shown to one decimal,
+     * rounded down.
+     *
+     * @param count number of top and of bottom students to show
+     */
+    static void generateAnalyticsReport(int count) {
+        assert registry.verifyAggregates();
+        long start = System.nanoTime();
+        ReportWriter writer = new ReportWriter(System.out);
+        writer.analyticsReport(registry.aggregates(), registry, count);
+        writer.flush();
+        Metrics.record(Metrics.Operation.ANALYTICS_REPORT, start);
+    }
+
+    /**
+     * Generates a detailed report of the student registration details.
+     * The students are listed by walking the rank index, which keeps them ordered by
+     * average marks in descending order, with ties ordered by ID.
+     * It also displays the student ID, name, and average marks for each student.
+     * The rows are formatted by a ReportWriter and written to the console in large blocks.
+     */
+    static void generateCompleteReport() {
+        long start = System.nanoTime();
+        ReportWriter writer = new ReportWriter(System.out);
+        writer.completeReport(registry);
+        writer.flush();
+        Metrics.record(Metrics.Operation.COMPLETE_REPORT, start);
     }
 
 }
@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts and times every operation of the menus, batch mode and the server, totals what
+ * the file loads read and counts the row cache of disk storage. Recording is a few counter increments, so it is always on.
+ * The metrics are shown by the additional controls menu and, with --metrics, written as JSON
+ * to a file every few seconds.
+ */
+class Metrics {
+    /**
+     * The operations that are timed.
+     */
+    enum Operation {
+        REGISTER, DELETE, FIND, SEARCH, RENAME, MARKS, VIEW_BY_NAME, SUMMARY_REPORT, COMPLETE_REPORT,
+        ANALYTICS_REPORT, LOAD, STORE, LOAD_SNAPSHOT, STORE_SNAPSHOT, LOAD_SHARDS, STORE_SHARDS,
+        LOAD_ARCHIVE, STORE_ARCHIVE, EXPORT_REPORT;
+
+        private static final Operation[] ALL = values();
+
+        /**
+         * Getter for the name used in the metrics file.
+         * @return the name in lower case.
+         */
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    // System.nanoTime() when the JVM started, so the first use of the class does not reset the clock
+    private static final long START = System.nanoTime() - ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000L;
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[Operation.ALL.length];
+    private static final LongAdder LOADS = new LongAdder();
+    private static final LongAdder LOAD_ROWS = new LongAdder();
+    private static final LongAdder LOAD_LOADED = new LongAdder();
+    private static final LongAdder LOAD_REJECTED = new LongAdder();
+    private static final LongAdder LOAD_BYTES = new LongAdder();
+    private static final LongAdder LOAD_NANOS = new LongAdder();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+    private static final LongAdder CACHE_EVICTIONS = new LongAdder();
+    private static final LongAdder CACHE_WRITE_BACKS = new LongAdder();
+    private static ScheduledExecutorService dumper; // Writes the metrics file, null when not dumping
+    private static Path dumpFile;
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Records that an operation finished now.
+     * @param operation the operation, or null to record nothing.
+     * @param startNanos the System.nanoTime() at which it started.
+     */
+    static void record(Operation operation, long startNanos) {
+        if (operation != null) {
+            HISTOGRAMS[operation.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Adds the counts of a finished file or snapshot load to the load totals.
+     * @param summary what the load read.
+     */
+    static void recordLoad(LoadSummary summary) {
+        LOADS.increment();
+        LOAD_ROWS.add(summary.rows);
+        LOAD_LOADED.add(summary.loaded);
+        LOAD_REJECTED.add(summary.rejected());
+        LOAD_BYTES.add(summary.bytes);
+        LOAD_NANOS.add(summary.nanos);
+    }
+
+    /**
+     * Records a row found in the cache of disk storage.
+     */
+    static void recordCacheHit() {
+        CACHE_HITS.increment();
+    }
+
+    /**
+     * Records a row read from disk because it was not in the cache.
+     */
+    static void recordCacheMiss() {
+        CACHE_MISSES.increment();
+    }
+
+    /**
+     * Records a row dropped from the cache to make room.
+     */
+    static void recordCacheEviction() {
+        CACHE_EVICTIONS.increment();
+    }
+
+    /**
+     * Records a changed row written from the cache to disk.
+     */
+    static void recordCacheWriteBack() {
+        CACHE_WRITE_BACKS.increment();
+    }
+
+    /**
+     * Appends a table of the metrics, with durations in microseconds.
+     * @param out where the table is written.
+     */
+    static void report(ReportWriter out) {
+        double seconds = (System.nanoTime() - START) / 1e9;
+        out.text("Metrics since the start ").leftFixed2(seconds, 0).text(" s ago:").newline();
+        out.left("Operation", 16).text(' ').left("Count", 10).text(' ').left("Per second", 12).text(' ')
+                .left("Mean us", 12).text(' ').left("p50 us", 12).text(' ').left("p90 us", 12).text(' ')
+                .left("p99 us", 12).text(' ').left("Max us", 12).newline();
+        for (Operation operation : Operation.ALL) {
+            LatencyHistogram histogram = HISTOGRAMS[operation.ordinal()];
+            long count = histogram.count();
+            if (count == 0) {
+                continue;
+            }
+            out.left(operation.label(), 16).text(' ')
+                    .left(Long.toString(count), 10).text(' ')
+                    .leftFixed2(count / seconds, 12).text(' ')
+                    .leftFixed2(histogram.totalNanos() / 1e3 / count, 12).text(' ')
+                    .leftFixed2(histogram.percentile(0.50) / 1e3, 12).text(' ')
+                    .leftFixed2(histogram.percentile(0.90) / 1e3, 12).text(' ')
+                    .leftFixed2(histogram.percentile(0.99) / 1e3, 12).text(' ')
+                    .leftFixed2(histogram.maxNanos() / 1e3, 12).newline();
+        }
+        long nanos = LOAD_NANOS.sum();
+        out.text("Loads: ").text(Long.toString(LOADS.sum()))
+                .text(", rows read: ").text(Long.toString(LOAD_ROWS.sum()))
+                .text(", loaded: ").text(Long.toString(LOAD_LOADED.sum()))
+                .text(", rejected: ").text(Long.toString(LOAD_REJECTED.sum()))
+                .text(", bytes read: ").text(Long.toString(LOAD_BYTES.sum()))
+                .text(", rows/s: ").text(Long.toString(perSecond(LOAD_ROWS.sum(), nanos))).newline();
+        long hits = CACHE_HITS.sum();
+        long misses = CACHE_MISSES.sum();
+        if (hits + misses > 0) {
+            out.text("Row cache: hits: ").text(Long.toString(hits))
+                    .text(", misses: ").text(Long.toString(misses))
+                    .text(", hit rate: ").leftFixed2(100.0 * hits / (hits + misses), 0).text('%')
+                    .text(", evictions: ").text(Long.toString(CACHE_EVICTIONS.sum()))
+                    .text(", written back: ").text(Long.toString(CACHE_WRITE_BACKS.sum())).newline();
+        }
+    }
+
+    /**
+     * Writes the metrics as one JSON object, with durations in nanoseconds.
+     * @param out where the JSON is written.
+     * @throws IOException if it cannot be written
+     */
+    static void writeJson(Writer out) throws IOException {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"timestamp\":\"").append(Instant.now())
+                .append("\",\"uptimeNanos\":").append(System.nanoTime() - START)
+                .append(",\"operations\":{");
+        for (Operation operation : Operation.ALL) {
+            LatencyHistogram histogram = HISTOGRAMS[operation.ordinal()];
+            long count = histogram.count();
+            json.append(operation.ordinal() == 0 ? "" : ",")
+                    .append('"').append(operation.label()).append("\":{")
+                    .append("\"count\":").append(count)
+                    .append(",\"totalNanos\":").append(histogram.totalNanos())
+                    .append(",\"meanNanos\":").append(count == 0 ? 0 : histogram.totalNanos() / count)
+                    .append(",\"p50Nanos\":").append(histogram.percentile(0.50))
+                    .append(",\"p90Nanos\":").append(histogram.percentile(0.90))
+                    .append(",\"p99Nanos\":").append(histogram.percentile(0.99))
+                    .append(",\"maxNanos\":").append(histogram.maxNanos())
+                    .append('}');
+        }
+        long nanos = LOAD_NANOS.sum();
+        json.append("},\"fileLoads\":{")
+                .append("\"count\":").append(LOADS.sum())
+                .append(",\"rows\":").append(LOAD_ROWS.sum())
+                .append(",\"loaded\":").append(LOAD_LOADED.sum())
+                .append(",\"rejected\":").append(LOAD_REJECTED.sum())
+                .append(",\"bytes\":").append(LOAD_BYTES.sum())
+                .append(",\"nanos\":").append(nanos)
+                .append(",\"rowsPerSecond\":").append(perSecond(LOAD_ROWS.sum(), nanos))
+                .append("},\"rowCache\":{")
+                .append("\"hits\":").append(CACHE_HITS.sum())
+                .append(",\"misses\":").append(CACHE_MISSES.sum())
+                .append(",\"evictions\":").append(CACHE_EVICTIONS.sum())
+                .append(",\"writeBacks\":").append(CACHE_WRITE_BACKS.sum())
+                .append("}}\n");
+        out.write(json.toString());
+    }
+
+    /**
+     * Writes the metrics file now and then every interval until stopDump is called.
+     * The file is replaced as a whole, so readers never see half of it.
+     * @param file the file to write.
+     * @param intervalSeconds seconds between writes.
+     */
+    static synchronized void startDump(Path file, int intervalSeconds) {
+        stopDump();
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(Metrics::dumpQuietly, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic writes and writes the metrics file one last time.
+     * Does nothing when the metrics are not being written.
+     */
+    static synchronized void stopDump() {
+        if (dumper == null) {
+            return;
+        }
+        dumper.shutdownNow();
+        try {
+            dumper.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dumper = null;
+        dumpQuietly();
+    }
+
+    private static void dumpQuietly() {
+        try {
+            dump(dumpFile);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics file. " + e.getMessage());
+        }
+    }
+
+    private static void dump(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writeJson(out);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : (long) (count * 1e9 / nanos);
+    }
+}
@@ -1,66 +1,50 @@
+/**
+ * View of the module marks of one student.
+ */
 public class Module {
-    private double mark1;
-    private double mark2;
-    private double mark3;
+    private final Student student;
 
     /**
      * Constructor for Module class
-     * @param mark1 mark to set to mark1
-     * @param mark2 mark to set to mark2
-     * @param mark3 mark to set to mark3
+     * @param marks mark of each module, in module order
      */
-    public Module(double mark1, double mark2, double mark3) {
-        this.mark1 = mark1;
-        this.mark2 = mark2;
-        this.mark3 = mark3;
-    }
-    // getters and setters
-
-    /**
-     * To get mark1
-     * @return mark1
-     */
-    public double getMark1() {
-        return mark1;
+    public Module(double... marks) {
+        this.student = new Student("w0000000", "", marks.length);
+        student.setModuleMarks(marks);
     }
 
     /**
-     * To get mark2
-     * @return mark2
+     * Constructor for a view over the marks of a student
+     * @param student student owning the marks
      */
-    public double getMark2() {
-        return mark2;
-    }
-
-    /**
-     * To get mark3
-     * @return mark3
-     */
-    public double getMark3() {
-        return mark3;
+    Module(Student student) {
+        this.student = student;
     }
+    // getters and setters
 
     /**
-     * To set the value of mark1 to mark
-     * @param mark mark1 to set
+     * To get the number of modules
+     * @return number of marks
      */
-    public void setMark1(double mark) {
-        this.mark1 = mark;
+    public int getModuleCount() {
+        return student.getColumns().moduleCount();
     }
 
     /**
-     * To set the value of mark2 to mark
-     * @param mark mark2 to set
+     * To get the mark of a module
+     * @param module module number starting at 0
+     * @return the mark
      */
-    public void setMark2(double mark) {
-        this.mark2 = mark;
+    public double getMark(int module) {
+        return student.getColumns().mark(module, student.getSlot());
     }
 
     /**
-     * To set the value of mark3 to mark
-     * @param mark mark3 to set
+     * To set the mark of a module
+     * @param module module number starting at 0
+     * @param mark the mark to set
      */
-    public void setMark3(double mark) {
-        this.mark3 = mark;
+    public void setMark(int module, double mark) {
+        student.setMark(module, mark);
     }
 }
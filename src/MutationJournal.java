@@ -0,0 +1,456 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of every change made to the registry.
+ * Changes are appended as small binary records to numbered segment files in the journal
+ * directory. When a segment grows past the compaction threshold, a new segment is started
+ * and a background thread folds everything before it into base.snap, after which the old
+ * segments are deleted. On startup the snapshot is loaded and the newer segments replayed.
+ * <pre>
+ * segment: magic (int), then records
+ * record:  payload length (int), CRC32 of payload (int), payload
+ * payload: type (byte), ID key (int), then the name and/or marks for the type
+ * </pre>
+ * Marks fill the rest of the payload, so the record length gives the number of modules.
+ */
+class MutationJournal implements StudentRegistry.Listener, AutoCloseable {
+    /**
+     * When appended records are forced to disk.
+     */
+    enum FsyncPolicy {
+        ALWAYS,   // On every commit, nothing committed is ever lost
+        INTERVAL, // Every FSYNC_INTERVAL_MS in the background
+        NEVER     // Left to the operating system
+    }
+
+    static final String SNAPSHOT_NAME = "base.snap";
+    private static final int SEGMENT_MAGIC = 0x534D534A; // "SMSJ"
+    private static final long FSYNC_INTERVAL_MS = 200;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte RENAME = 3;
+    private static final byte MARKS = 4;
+
+    private final Path directory;
+    private final StudentRegistry registry;
+    private final FsyncPolicy fsync;
+    private final long compactBytes;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // Records not yet written
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private FileChannel segment;
+    private int segmentNumber;
+    private long segmentSize;
+    private long appended;  // Bytes appended since startup
+    private long durable;   // Bytes known to be written, and forced if the policy says so
+    private boolean dirty;  // Written but not forced
+    private String lastError;
+
+    private MutationJournal(Path directory, StudentRegistry registry, FsyncPolicy fsync, long compactBytes) {
+        this.directory = directory;
+        this.registry = registry;
+        this.fsync = fsync;
+        this.compactBytes = compactBytes;
+    }
+
+    /**
+     * Opens the journal in a directory, restores the registry from it and starts journaling
+     * every later change of the registry.
+     *
+     * @param directory the journal directory, created if missing
+     * @param registry an empty registry to restore into
+     * @param fsync when records are forced to disk
+     * @param compactBytes segment size that triggers a compaction
+     * @return the open journal, which must be closed on exit
+     * @throws IOException if the journal cannot be read or written
+     */
+    static MutationJournal open(Path directory, StudentRegistry registry, FsyncPolicy fsync,
+                                long compactBytes) throws IOException {
+        Files.createDirectories(directory);
+        MutationJournal journal = new MutationJournal(directory, registry, fsync, compactBytes);
+        journal.recover();
+        registry.addListener(journal);
+        if (fsync == FsyncPolicy.INTERVAL) {
+            journal.background.scheduleWithFixedDelay(journal::forceQuietly,
+                    FSYNC_INTERVAL_MS, FSYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return journal;
+    }
+
+    /**
+     * Makes every record appended so far durable according to the fsync policy.
+     * Records appended by other threads are committed in the same write, and a commit that
+     * finds its records already written returns straight away.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    void commit() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appended;
+            if (durable >= target) {
+                return;
+            }
+            flush();
+            if (fsync == FsyncPolicy.ALWAYS) {
+                segment.force(false);
+                dirty = false;
+            }
+            durable = appended;
+        }
+        if (segmentSize >= compactBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Gets and clears the error of the last failed background task, if any.
+     * @return the error message, or null.
+     */
+    synchronized String takeError() {
+        String error = lastError;
+        lastError = null;
+        return error;
+    }
+
+    @Override
+    public synchronized void added(int key, StudentColumns columns, int slot) {
+        byte[] name = columns.name(slot).getBytes(StandardCharsets.UTF_8);
+        int start = begin(ADD, key, 4 + name.length + 8 * columns.moduleCount());
+        buffer.putInt(name.length).put(name);
+        for (int m = 0; m < columns.moduleCount(); m++) {
+            buffer.putDouble(columns.mark(m, slot));
+        }
+        end(start);
+    }
+
+    @Override
+    public synchronized void removed(int key) {
+        end(begin(REMOVE, key, 0));
+    }
+
+    @Override
+    public synchronized void renamed(int key, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int start = begin(RENAME, key, 4 + bytes.length);
+        buffer.putInt(bytes.length).put(bytes);
+        end(start);
+    }
+
+    @Override
+    public synchronized void marksChanged(int key, StudentColumns columns, int slot) {
+        int start = begin(MARKS, key, 8 * columns.moduleCount());
+        for (int m = 0; m < columns.moduleCount(); m++) {
+            buffer.putDouble(columns.mark(m, slot));
+        }
+        end(start);
+    }
+
+    /**
+     * Commits every record, waits for a running compaction and closes the segment.
+     * @throws IOException if the journal cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            segment.force(false);
+            segment.close();
+        }
+    }
+
+    /**
+     * Loads base.snap and replays the segments written after it, then reopens the newest segment.
+     */
+    private void recover() throws IOException {
+        int firstSegment = 0;
+        int students = 0;
+        Path snapshotFile = directory.resolve(SNAPSHOT_NAME);
+        if (Files.exists(snapshotFile)) {
+            try (StudentSnapshot snapshot = StudentSnapshot.open(snapshotFile)) {
+                students = (int) snapshot.loadInto(registry).loaded;
+                firstSegment = snapshot.journalSegment();
+            }
+        }
+
+        long records = 0;
+        int lastSegment = firstSegment - 1;
+        for (int number : segmentNumbers()) {
+            if (number < firstSegment) {
+                Files.delete(segmentFile(number)); // Left over from a compaction that did not finish cleaning up
+            } else {
+                records += replay(segmentFile(number));
+                lastSegment = number;
+            }
+        }
+        if (students > 0 || records > 0) {
+            System.out.println("Restored " + registry.size() + " students from the journal ("
+                    + students + " from the snapshot, " + records + " changes replayed).");
+        }
+        if (lastSegment >= firstSegment) {
+            // Keep appending to the newest segment; replay has cut off any torn record
+            segmentNumber = lastSegment;
+            segment = FileChannel.open(segmentFile(lastSegment), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            segmentSize = segment.size();
+        } else {
+            startSegment(firstSegment);
+        }
+    }
+
+    /**
+     * Applies the records of one segment to the registry.
+     * A torn or corrupt record ends the segment; it and anything after it are cut off.
+     * Records for students the registry does not hold are skipped: the snapshot may already
+     * have dropped a student that the segment changes before removing it.
+     * @return number of records applied
+     */
+    private long replay(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.remaining() < 4 || in.getInt() != SEGMENT_MAGIC) {
+            throw new IOException("Not a journal segment: " + file);
+        }
+        long records = 0;
+        int validEnd = in.position();
+        double[] marks = new double[registry.moduleCount()];
+        registry.beginBulkLoad();
+        try {
+            while (in.remaining() >= 8) {
+                int length = in.getInt();
+                int checksum = in.getInt();
+                if (length < 5 || length > in.remaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(bytes, in.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                int next = in.position() + length;
+                byte type = in.get();
+                int key = in.getInt();
+                switch (type) {
+                    case ADD:
+                        String name = readName(in);
+                        readMarks(in, next, marks, file);
+                        registry.add(key, name, marks);
+                        break;
+                    case REMOVE:
+                        registry.remove(IdIndex.idOf(key));
+                        break;
+                    case RENAME:
+                        String newName = readName(in);
+                        if (registry.contains(key)) {
+                            registry.setStudentName(key, newName);
+                        }
+                        break;
+                    case MARKS:
+                        readMarks(in, next, marks, file);
+                        if (registry.contains(key)) {
+                            registry.setModuleMarks(key, marks);
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown journal record type " + type + " in " + file);
+                }
+                in.position(next);
+                validEnd = next;
+                records++;
+            }
+        } finally {
+            registry.endBulkLoad();
+        }
+        if (validEnd < bytes.length) {
+            System.out.println("Journal " + file.getFileName() + " ends with an incomplete change, which was dropped.");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validEnd);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Closes the current segment and starts a new one, then writes a snapshot of the registry
+     * in the background and deletes the segments it replaces.
+     */
+    private void compact() throws IOException {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        int newSegment;
+        synchronized (this) {
+            flush();
+            segment.force(false);
+            segment.close();
+            newSegment = segmentNumber + 1;
+            startSegment(newSegment);
+        }
+        // Copied outside the journal lock, as the registry calls into the journal under its own
+        // lock. Changes made since the rotation may end up both in the snapshot and in the new
+        // segment, so replay has to accept records that are already applied: an ADD of a
+        // registered student is ignored, and so are REMOVE, RENAME and MARKS of a student the
+        // snapshot no longer has because it was removed later in the segment.
+        StudentColumns copy = registry.copyColumns();
+        int count = copy.rows();
+        background.execute(() -> {
+            try {
+                StudentSnapshot.write(copy, count, directory.resolve(SNAPSHOT_NAME), newSegment);
+                for (int number : segmentNumbers()) {
+                    if (number < newSegment) {
+                        Files.delete(segmentFile(number));
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    lastError = "Journal compaction failed: " + e.getMessage();
+                }
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    private void startSegment(int number) throws IOException {
+        segmentNumber = number;
+        segment = FileChannel.open(segmentFile(number), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(SEGMENT_MAGIC).flip();
+        while (magic.hasRemaining()) {
+            segment.write(magic);
+        }
+        segmentSize = 4;
+    }
+
+    /**
+     * Reserves room for a record and writes its type and key.
+     * @return the buffer position of the record
+     */
+    private int begin(byte type, int key, int bodyLength) {
+        int recordLength = 8 + 5 + bodyLength;
+        if (buffer.remaining() < recordLength) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (buffer.remaining() < recordLength) {
+                throw new IllegalArgumentException("Journal record too large: " + recordLength + " bytes");
+            }
+        }
+        int start = buffer.position();
+        buffer.putInt(0).putInt(0).put(type).putInt(key);
+        return start;
+    }
+
+    /**
+     * Fills in the length and checksum of the record that starts at the given position.
+     */
+    private void end(int start) {
+        int length = buffer.position() - start;
+        buffer.putInt(start, length - 8);
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start + 8).limit(start + length);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        appended += length;
+    }
+
+    /**
+     * Writes the buffered records to the current segment.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentSize += segment.write(buffer);
+        }
+        buffer.clear();
+        dirty = true;
+    }
+
+    private synchronized void forceQuietly() {
+        try {
+            if (buffer.position() > 0) {
+                flush();
+            }
+            if (dirty) {
+                segment.force(false);
+                dirty = false;
+            }
+        } catch (IOException e) {
+            lastError = "Journal fsync failed: " + e.getMessage();
+        }
+    }
+
+    private String readName(ByteBuffer in) {
+        byte[] name = new byte[in.getInt()];
+        in.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the marks that fill the rest of a record, one per module.
+     * @throws IOException if the record has marks for another number of modules than the registry
+     */
+    private static void readMarks(ByteBuffer in, int next, double[] marks, Path file) throws IOException {
+        if (next - in.position() != 8 * marks.length) {
+            throw new IOException("Journal " + file.getFileName() + " has " + (next - in.position()) / 8
+                    + " marks per student but the registry has " + marks.length + " modules");
+        }
+        for (int m = 0; m < marks.length; m++) {
+            marks[m] = in.getDouble();
+        }
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("journal-%06d.log", number));
+    }
+
+    /**
+     * Lists the numbers of the segment files in the journal directory, in ascending order.
+     */
+    private List<Integer> segmentNumbers() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
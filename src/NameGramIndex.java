@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+/**
+ * Index from every run of GRAM characters in the case-folded names to the ID keys of the
+ * students whose name contains it.
+ * A substring search looks up the grams of the text and only checks the students of the
+ * rarest one, so it reads a number of students close to the number of matches instead of
+ * the whole cohort. Each gram keeps its keys in an open-addressing hash set, so adding and
+ * removing a student costs O(1) per gram of its name.
+ */
+class NameGramIndex {
+    static final int GRAM = 3; // Characters per gram; shorter texts cannot use the index
+    private static final long NO_GRAM = -1; // Grams are at most 48 bits, so never -1
+
+    private long[] grams = new long[64];    // Open-addressing table of grams
+    private KeySet[] sets = new KeySet[64]; // Keys of the students containing each gram
+    private int gramCount;
+
+    /**
+     * Constructor to create an empty index.
+     */
+    NameGramIndex() {
+        Arrays.fill(grams, NO_GRAM);
+    }
+
+    /**
+     * Adds a student under every gram of its name.
+     * @param key the student ID key.
+     * @param nameKey the case-folded name.
+     */
+    void add(int key, String nameKey) {
+        for (int i = 0; i + GRAM <= nameKey.length(); i++) {
+            long gram = gramAt(nameKey, i);
+            int index = indexOf(gram);
+            if (grams[index] == NO_GRAM) {
+                grams[index] = gram;
+                sets[index] = new KeySet();
+                if (++gramCount * 2 > grams.length) {
+                    grow();
+                }
+                index = indexOf(gram);
+            }
+            sets[index].add(key);
+        }
+    }
+
+    /**
+     * Removes a student from every gram of its name.
+     * @param key the student ID key.
+     * @param nameKey the case-folded name it was added with.
+     */
+    void remove(int key, String nameKey) {
+        for (int i = 0; i + GRAM <= nameKey.length(); i++) {
+            int index = indexOf(gramAt(nameKey, i));
+            if (grams[index] != NO_GRAM) {
+                sets[index].remove(key); // Grams with no students left stay in the table
+            }
+        }
+    }
+
+    /**
+     * Finds the students that may contain a text: the students of its rarest gram.
+     * Every student containing the text is among them, in no particular order, and the
+     * caller has to check the others.
+     * @param text the case-folded text, at least GRAM characters long.
+     * @return the ID keys of the candidates, in a new array.
+     */
+    int[] candidates(String text) {
+        KeySet rarest = null;
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            int index = indexOf(gramAt(text, i));
+            if (grams[index] == NO_GRAM || sets[index].size == 0) {
+                return new int[0]; // No name contains this gram
+            }
+            if (rarest == null || sets[index].size < rarest.size) {
+                rarest = sets[index];
+            }
+        }
+        return rarest == null ? new int[0] : rarest.toArray();
+    }
+
+    private static long gramAt(String text, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = (gram << 16) | text.charAt(offset + i);
+        }
+        return gram;
+    }
+
+    /**
+     * Finds the slot of a gram, or the empty slot where it would go.
+     */
+    private int indexOf(long gram) {
+        int mask = grams.length - 1;
+        int index = (int) (mix(gram) & mask);
+        while (grams[index] != NO_GRAM && grams[index] != gram) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void grow() {
+        long[] oldGrams = grams;
+        KeySet[] oldSets = sets;
+        grams = new long[oldGrams.length * 2];
+        sets = new KeySet[oldGrams.length * 2];
+        Arrays.fill(grams, NO_GRAM);
+        for (int i = 0; i < oldGrams.length; i++) {
+            if (oldGrams[i] != NO_GRAM) {
+                int index = indexOf(oldGrams[i]);
+                grams[index] = oldGrams[i];
+                sets[index] = oldSets[i];
+            }
+        }
+    }
+
+    private static long mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return value ^ (value >>> 29);
+    }
+
+    /**
+     * Set of ID keys using linear probing; removal shifts the following entries back, so
+     * the table never fills up with deleted markers.
+     */
+    private static class KeySet {
+        private static final int EMPTY = -1; // ID keys are never negative
+
+        private int[] table = {EMPTY, EMPTY, EMPTY, EMPTY};
+        private int size;
+
+        void add(int key) {
+            int index = indexOf(key);
+            if (table[index] == key) {
+                return; // The gram occurs more than once in the name
+            }
+            table[index] = key;
+            if (++size * 4 > table.length * 3) {
+                resize(table.length * 2);
+            }
+        }
+
+        void remove(int key) {
+            int mask = table.length - 1;
+            int index = indexOf(key);
+            if (table[index] != key) {
+                return;
+            }
+            table[index] = EMPTY;
+            size--;
+            // Move back later entries of the same probe run that could sit in the gap
+            int next = (index + 1) & mask;
+            while (table[next] != EMPTY) {
+                int home = IdIndex.bucketOf(table[next], mask);
+                if (((next - home) & mask) >= ((next - index) & mask)) {
+                    table[index] = table[next];
+                    table[next] = EMPTY;
+                    index = next;
+                }
+                next = (next + 1) & mask;
+            }
+            if (size * 8 < table.length && table.length > 4) {
+                resize(table.length / 2);
+            }
+        }
+
+        int[] toArray() {
+            int[] keys = new int[size];
+            int count = 0;
+            for (int key : table) {
+                if (key != EMPTY) {
+                    keys[count++] = key;
+                }
+            }
+            return keys;
+        }
+
+        private int indexOf(int key) {
+            int mask = table.length - 1;
+            int index = IdIndex.bucketOf(key, mask);
+            while (table[index] != EMPTY && table[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void resize(int length) {
+            int[] old = table;
+            table = new int[length];
+            Arrays.fill(table, EMPTY);
+            for (int key : old) {
+                if (key != EMPTY) {
+                    table[indexOf(key)] = key;
+                }
+            }
+        }
+    }
+}
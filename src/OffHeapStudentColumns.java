@@ -0,0 +1,302 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Student storage outside the Java heap, for cohorts of tens of millions.
+ * Every column is a direct buffer indexed by slot, so the registry adds no objects for the
+ * garbage collector to trace and the heap does not grow with the cohort. Names are kept as
+ * UTF-16 characters in an off-heap arena, located by a fixed-size record per slot holding
+ * the offset and length of the name and of its case-folded key; the key shares the
+ * characters of the name when folding does not change it. Strings are only created when a
+ * name is read, and name comparisons and sort prefixes read the arena directly.
+ * <p>
+ * A new name is appended to the arena. The space of replaced names is reclaimed when the
+ * arena is full, by copying the names still in use to a new arena of twice their size.
+ * Dropped buffers are freed by the garbage collector, so the JVM needs a
+ * -XX:MaxDirectMemorySize large enough for the cohort.
+ */
+class OffHeapStudentColumns extends StudentColumns {
+    private static final int RECORD_BYTES = 16; // Name record: name offset, name length, key offset, key length
+    private static final int NAME_LENGTH = 4;   // Byte offsets of the fields in a name record
+    private static final int KEY_OFFSET = 8;
+    private static final int KEY_LENGTH = 12;
+    private static final int MIN_ARENA_CHARS = 1 << 10;
+    private static final int MAX_ARENA_CHARS = Integer.MAX_VALUE / 2; // The bytes must fit in an int
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private int rows;
+    private ByteBuffer idKeys;
+    private ByteBuffer nameRecords;
+    private final ByteBuffer[] marks;       // One column per module
+    private final DoubleBuffer[] markViews; // The same columns, for bulk reads
+    private ByteBuffer arenaBytes;          // Characters of the names and keys
+    private CharBuffer arena;               // The same characters, indexed by character
+    private int arenaUsed;
+
+    /**
+     * Constructor to create storage with room for a number of rows.
+     * @param rows number of rows to allocate.
+     * @param modules number of modules each student has marks for.
+     */
+    OffHeapStudentColumns(int rows, int modules) {
+        super(modules);
+        this.rows = rows;
+        idKeys = allocate(4L * rows);
+        nameRecords = allocate((long) RECORD_BYTES * rows);
+        marks = new ByteBuffer[modules];
+        markViews = new DoubleBuffer[modules];
+        for (int m = 0; m < modules; m++) {
+            marks[m] = allocate(8L * rows);
+            markViews[m] = marks[m].asDoubleBuffer();
+        }
+        newArena(Math.max(MIN_ARENA_CHARS, 16L * rows));
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public void ensureRows(int rows) {
+        if (rows <= this.rows) {
+            return;
+        }
+        idKeys = grow(idKeys, 4L * rows);
+        nameRecords = grow(nameRecords, (long) RECORD_BYTES * rows);
+        for (int m = 0; m < marks.length; m++) {
+            marks[m] = grow(marks[m], 8L * rows);
+            markViews[m] = marks[m].asDoubleBuffer();
+        }
+        this.rows = rows;
+    }
+
+    @Override
+    public int idKey(int slot) {
+        return idKeys.getInt(slot << 2);
+    }
+
+    @Override
+    public String name(int slot) {
+        int record = slot * RECORD_BYTES;
+        return string(nameRecords.getInt(record), nameRecords.getInt(record + NAME_LENGTH));
+    }
+
+    @Override
+    public void setName(int slot, String name) {
+        String text = name == null ? "" : name;
+        String key = collationKey(text);
+        boolean shared = key == text; // collationKey returns the name itself when it is already folded
+        reserve(text.length() + (shared ? 0 : key.length()));
+        int nameOffset = append(text);
+        int keyOffset = shared ? nameOffset : append(key);
+        putRecord(slot, nameOffset, text.length(), keyOffset, key.length());
+    }
+
+    @Override
+    public String nameKey(int slot) {
+        int record = slot * RECORD_BYTES;
+        return string(nameRecords.getInt(record + KEY_OFFSET), nameRecords.getInt(record + KEY_LENGTH));
+    }
+
+    @Override
+    public int compareNameKeys(int slot1, int slot2) {
+        int offset1 = nameRecords.getInt(slot1 * RECORD_BYTES + KEY_OFFSET);
+        int length1 = nameRecords.getInt(slot1 * RECORD_BYTES + KEY_LENGTH);
+        int offset2 = nameRecords.getInt(slot2 * RECORD_BYTES + KEY_OFFSET);
+        int length2 = nameRecords.getInt(slot2 * RECORD_BYTES + KEY_LENGTH);
+        int common = Math.min(length1, length2);
+        int i = 0;
+        // Find the first differing characters four at a time
+        while (i + 4 <= common) {
+            long difference = arenaBytes.getLong((offset1 + i) << 1) ^ arenaBytes.getLong((offset2 + i) << 1);
+            if (difference != 0) {
+                i += (LITTLE_ENDIAN ? Long.numberOfTrailingZeros(difference) : Long.numberOfLeadingZeros(difference)) >>> 4;
+                return arena.get(offset1 + i) - arena.get(offset2 + i);
+            }
+            i += 4;
+        }
+        for (; i < common; i++) {
+            char c1 = arena.get(offset1 + i);
+            char c2 = arena.get(offset2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    @Override
+    public long nameKeyPrefix(int slot) {
+        int offset = nameRecords.getInt(slot * RECORD_BYTES + KEY_OFFSET);
+        int length = nameRecords.getInt(slot * RECORD_BYTES + KEY_LENGTH);
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            prefix = (prefix << 16) | (i < length ? arena.get(offset + i) : 0);
+        }
+        return prefix;
+    }
+
+    @Override
+    public double mark(int module, int slot) {
+        return marks[module].getDouble(slot << 3);
+    }
+
+    @Override
+    public void setMark(int module, int slot, double mark) {
+        marks[module].putDouble(slot << 3, mark);
+    }
+
+    @Override
+    public void readMarks(int module, int from, int count, double[] into) {
+        markViews[module].get(from, into, 0, count);
+    }
+
+    @Override
+    public void set(int slot, int idKey, String name) {
+        idKeys.putInt(slot << 2, idKey);
+        setName(slot, name);
+        for (ByteBuffer column : marks) {
+            column.putDouble(slot << 3, 0);
+        }
+    }
+
+    @Override
+    public void copyFrom(int slot, StudentColumns source, int sourceSlot) {
+        if (source != this) {
+            super.copyFrom(slot, source, sourceSlot);
+            return;
+        }
+        // Within the same storage the name record is copied, so both slots share the characters
+        idKeys.putInt(slot << 2, idKeys.getInt(sourceSlot << 2));
+        nameRecords.put(slot * RECORD_BYTES, nameRecords, sourceSlot * RECORD_BYTES, RECORD_BYTES);
+        for (ByteBuffer column : marks) {
+            column.putDouble(slot << 3, column.getDouble(sourceSlot << 3));
+        }
+    }
+
+    @Override
+    public StudentColumns copy(int count) {
+        OffHeapStudentColumns copy = new OffHeapStudentColumns(0, marks.length);
+        copy.rows = count;
+        copy.idKeys = grow(idKeys.slice(0, 4 * count), 4L * count);
+        copy.nameRecords = grow(nameRecords.slice(0, RECORD_BYTES * count), (long) RECORD_BYTES * count);
+        for (int m = 0; m < marks.length; m++) {
+            copy.marks[m] = grow(marks[m].slice(0, 8 * count), 8L * count);
+            copy.markViews[m] = copy.marks[m].asDoubleBuffer();
+        }
+        copy.newArena(Math.max(MIN_ARENA_CHARS, liveChars(count)));
+        for (int slot = 0; slot < count; slot++) {
+            copy.relocate(slot, arena);
+        }
+        return copy;
+    }
+
+    @Override
+    public void clear(int slot) {
+        putRecord(slot, 0, 0, 0, 0);
+    }
+
+    private String string(int offset, int length) {
+        char[] chars = new char[length];
+        arena.get(offset, chars);
+        return new String(chars);
+    }
+
+    private int append(String text) {
+        int offset = arenaUsed;
+        for (int i = 0; i < text.length(); i++) {
+            arena.put(offset + i, text.charAt(i));
+        }
+        arenaUsed += text.length();
+        return offset;
+    }
+
+    private void putRecord(int slot, int nameOffset, int nameLength, int keyOffset, int keyLength) {
+        int record = slot * RECORD_BYTES;
+        nameRecords.putInt(record, nameOffset);
+        nameRecords.putInt(record + NAME_LENGTH, nameLength);
+        nameRecords.putInt(record + KEY_OFFSET, keyOffset);
+        nameRecords.putInt(record + KEY_LENGTH, keyLength);
+    }
+
+    /**
+     * Makes room for more characters at the end of the arena, moving the names in use to a
+     * new arena if they do not fit.
+     */
+    private void reserve(int chars) {
+        if (arenaUsed + chars <= arena.capacity()) {
+            return;
+        }
+        long needed = liveChars(rows) + chars;
+        if (needed > MAX_ARENA_CHARS) {
+            throw new IllegalStateException("Student names do not fit in the off-heap arena");
+        }
+        CharBuffer old = arena;
+        newArena(Math.min(MAX_ARENA_CHARS, Math.max(MIN_ARENA_CHARS, needed * 2)));
+        for (int slot = 0; slot < rows; slot++) {
+            relocate(slot, old);
+        }
+    }
+
+    /**
+     * Counts the characters the first rows use in the arena.
+     */
+    private long liveChars(int count) {
+        long chars = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int record = slot * RECORD_BYTES;
+            chars += nameRecords.getInt(record + NAME_LENGTH);
+            if (nameRecords.getInt(record + KEY_OFFSET) != nameRecords.getInt(record)) {
+                chars += nameRecords.getInt(record + KEY_LENGTH);
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * Copies the name and key of a slot from another arena to the end of this one and points
+     * the name record at the copies.
+     */
+    private void relocate(int slot, CharBuffer from) {
+        int record = slot * RECORD_BYTES;
+        int nameOffset = nameRecords.getInt(record);
+        int nameLength = nameRecords.getInt(record + NAME_LENGTH);
+        int keyOffset = nameRecords.getInt(record + KEY_OFFSET);
+        int keyLength = nameRecords.getInt(record + KEY_LENGTH);
+        int newName = arenaUsed;
+        arena.put(newName, from, nameOffset, nameLength);
+        arenaUsed += nameLength;
+        int newKey = newName;
+        if (keyOffset != nameOffset) {
+            newKey = arenaUsed;
+            arena.put(newKey, from, keyOffset, keyLength);
+            arenaUsed += keyLength;
+        }
+        putRecord(slot, newName, nameLength, newKey, keyLength);
+    }
+
+    private void newArena(long chars) {
+        arenaBytes = allocate(2 * chars);
+        arena = arenaBytes.asCharBuffer();
+        arenaUsed = 0;
+    }
+
+    private static ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many students for off-heap storage");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Copies a buffer to the start of a new, larger one.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, long bytes) {
+        ByteBuffer bigger = allocate(bytes);
+        bigger.put(0, buffer, 0, buffer.capacity());
+        return bigger;
+    }
+}
@@ -0,0 +1,160 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Command-line options of the program.
+ * Every option has the form --name or --name=value.
+ */
+class Options {
+    int capacity = 100;                  // --capacity=N
+    int modules = StudentColumns.DEFAULT_MODULES; // --modules=N, marks per student
+    StudentColumns.Storage storage = StudentColumns.Storage.HEAP; // --storage=heap|offheap|disk
+    Path storeDirectory = Paths.get(System.getProperty("java.io.tmpdir")); // --store-dir=DIR, files of disk storage
+    int cacheRows = DiskStudentColumns.DEFAULT_CACHE_ROWS; // --cache-rows=N, rows of disk storage kept in memory
+    int shards = 0;                      // --shards=N, save student details as N shard files instead of one
+    List<Path> shardDirectories = List.of(Paths.get("student_details.shards")); // --shard-dirs=DIR[,DIR...]
+    int archiveLevel = Deflater.BEST_SPEED; // --archive-level=0..9, 0 to store archive blocks uncompressed
+    Path journalDirectory = null;        // --journal[=DIR], null when journaling is off
+    MutationJournal.FsyncPolicy fsync = MutationJournal.FsyncPolicy.INTERVAL; // --journal-fsync=always|interval|never
+    long compactBytes = 64L << 20;       // --journal-compact-mb=N
+    boolean batch = false;               // --batch[=FILE], run commands instead of showing menus
+    Path batchFile = null;               // Commands file, null to read standard input
+    int servePort = -1;                  // --serve[=PORT], -1 when not serving
+    int connectPort = -1;                // --connect[=PORT], -1 when not a client
+    int clients = 0;                     // --clients=N, load test with N connections
+    int requests = 30_000;               // --requests=N, requests per load test connection
+    Path metricsFile = null;             // --metrics[=FILE], null when the metrics are not written
+    int metricsInterval = 10;            // --metrics-interval=SECONDS
+
+    /**
+     * Parses the command-line arguments.
+     * @param args the arguments given to main.
+     * @return the parsed options.
+     * @throws IllegalArgumentException if an option is unknown or has an invalid value.
+     */
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? null : arg.substring(equals + 1);
+            switch (name) {
+                case "--capacity":
+                    options.capacity = positive(name, value);
+                    break;
+                case "--modules":
+                    options.modules = positive(name, value);
+                    break;
+                case "--storage":
+                    try {
+                        options.storage = StudentColumns.Storage.valueOf(required(name, value).toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+                    }
+                    break;
+                case "--store-dir":
+                    options.storeDirectory = Paths.get(required(name, value));
+                    break;
+                case "--cache-rows":
+                    options.cacheRows = positive(name, value);
+                    break;
+                case "--shards":
+                    options.shards = positive(name, value);
+                    break;
+                case "--shard-dirs":
+                    List<Path> directories = new ArrayList<>();
+                    for (String directory : required(name, value).split(",")) {
+                        if (directory.isEmpty()) {
+                            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+                        }
+                        directories.add(Paths.get(directory));
+                    }
+                    options.shardDirectories = directories;
+                    break;
+                case "--archive-level":
+                    options.archiveLevel = level(name, value);
+                    break;
+                case "--journal":
+                    options.journalDirectory = Paths.get(value == null ? "journal" : value);
+                    break;
+                case "--batch":
+                    options.batch = true;
+                    options.batchFile = value == null ? null : Paths.get(required(name, value));
+                    break;
+                case "--serve":
+                    options.servePort = value == null ? StudentServer.DEFAULT_PORT : port(name, value);
+                    break;
+                case "--connect":
+                    options.connectPort = value == null ? StudentServer.DEFAULT_PORT : port(name, value);
+                    break;
+                case "--clients":
+                    options.clients = positive(name, value);
+                    break;
+                case "--requests":
+                    options.requests = positive(name, value);
+                    break;
+                case "--journal-fsync":
+                    try {
+                        options.fsync = MutationJournal.FsyncPolicy.valueOf(required(name, value).toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+                    }
+                    break;
+                case "--journal-compact-mb":
+                    options.compactBytes = (long) positive(name, value) << 20;
+                    break;
+                case "--metrics":
+                    options.metricsFile = Paths.get(value == null ? "metrics.json" : value);
+                    break;
+                case "--metrics-interval":
+                    options.metricsInterval = positive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return options;
+    }
+
+    private static String required(String name, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+        return value;
+    }
+
+    private static int port(String name, String value) {
+        int port = positive(name, value);
+        if (port > 65535) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+        return port;
+    }
+
+    private static int level(String name, String value) {
+        try {
+            int level = Integer.parseInt(required(name, value));
+            if (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) {
+                return level;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+    }
+
+    private static int positive(String name, String value) {
+        try {
+            int number = Integer.parseInt(required(name, value));
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+    }
+}
@@ -0,0 +1,447 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Ordered set of student ID keys kept in a treap with subtree sizes.
+ * The order comes from a KeyOrder that reads the current values of the students,
+ * so a student must be removed before its sort values change and inserted again afterwards.
+ * Each node caches a 64-bit sort prefix of its key, so most comparisons never read the students.
+ * Insert, remove, rank and select run in O(log n), and an in-order walk of k keys from
+ * any position runs in O(log n + k).
+ */
+class OrderedIdTree {
+    /**
+     * Ordering between two student ID keys.
+     */
+    interface KeyOrder {
+        /**
+         * Gives the sort prefix of a key. Prefixes are compared as unsigned longs and a smaller
+         * prefix must always mean the key comes first.
+         */
+        long prefix(int key);
+
+        /**
+         * Compares two different keys whose prefixes are equal.
+         * It must not return 0.
+         */
+        int compareTies(int key1, int key2);
+    }
+
+    /**
+     * A position in the order that need not be a key in the tree, such as a search text.
+     */
+    interface Bound {
+        /**
+         * Tells if a key comes before the bound. Must hold for a leading run of the keys in
+         * order and for none after them.
+         */
+        boolean isBefore(long prefix, int key);
+    }
+
+    private static final int NIL = -1;
+
+    private final KeyOrder order;
+    private int[] keys;
+    private long[] prefixes;
+    private int[] left;
+    private int[] right;
+    private int[] sizes;
+    private int[] priorities;
+    private int root = NIL;
+    private int freeList = NIL; // Free nodes are chained through left[]
+    private int used = 0;
+    private int seed = 0x2545F491;
+    private int splitLeft;  // Results of split()
+    private int splitRight;
+
+    /**
+     * Constructor to create an empty tree.
+     * @param order ordering of the keys.
+     */
+    public OrderedIdTree(KeyOrder order) {
+        this.order = order;
+        allocate(16);
+    }
+
+    /**
+     * Getter for the number of keys in the tree.
+     * @return number of keys.
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Inserts a key.
+     * @param key the student ID key, must not already be in the tree.
+     */
+    public void insert(int key) {
+        int node = newNode(key);
+        root = insert(root, node);
+    }
+
+    /**
+     * Removes a key.
+     * @param key the student ID key.
+     * @return true if the key was in the tree.
+     */
+    public boolean remove(int key) {
+        int before = size();
+        root = remove(root, order.prefix(key), key);
+        return size() < before;
+    }
+
+    /**
+     * Finds the position of a key in the order.
+     * @param key the student ID key.
+     * @return position starting at 0, or -1 if the key is not in the tree.
+     */
+    public int rank(int key) {
+        long prefix = order.prefix(key);
+        int rank = 0;
+        int node = root;
+        while (node != NIL) {
+            int cmp = compare(prefix, key, node);
+            if (cmp == 0) {
+                return rank + sizeOf(left[node]);
+            } else if (cmp < 0) {
+                node = left[node];
+            } else {
+                rank += sizeOf(left[node]) + 1;
+                node = right[node];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts the keys that come before a bound.
+     * @param bound the bound.
+     * @return the position the bound would have in the order.
+     */
+    public int countBefore(Bound bound) {
+        int count = 0;
+        int node = root;
+        while (node != NIL) {
+            if (bound.isBefore(prefixes[node], keys[node])) {
+                count += sizeOf(left[node]) + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the key at a position in the order.
+     * @param position position starting at 0.
+     * @return the student ID key.
+     */
+    public int select(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of range for size " + size());
+        }
+        int node = root;
+        while (true) {
+            int leftSize = sizeOf(left[node]);
+            if (position < leftSize) {
+                node = left[node];
+            } else if (position == leftSize) {
+                return keys[node];
+            } else {
+                position -= leftSize + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * Walks keys in order starting at a position.
+     * @param from position of the first key.
+     * @param count maximum number of keys to visit.
+     * @param action called with each key.
+     */
+    public void forEach(int from, int count, IntConsumer action) {
+        if (from < 0 || count <= 0 || from >= size()) {
+            return;
+        }
+        // Descend to the start position, remembering the nodes still to be visited
+        int[] stack = new int[64];
+        int depth = 0;
+        int node = root;
+        int position = from;
+        while (node != NIL) {
+            int leftSize = sizeOf(left[node]);
+            if (position < leftSize) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = left[node];
+            } else if (position == leftSize) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                break;
+            } else {
+                position -= leftSize + 1;
+                node = right[node];
+            }
+        }
+
+        // Standard in-order walk from the start node
+        while (depth > 0 && count > 0) {
+            node = stack[--depth];
+            action.accept(keys[node]);
+            count--;
+            node = right[node];
+            while (node != NIL) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = left[node];
+            }
+        }
+    }
+
+    /**
+     * Walks every key in order.
+     * @param action called with each key.
+     */
+    public void forEach(IntConsumer action) {
+        forEach(0, size(), action);
+    }
+
+    /**
+     * Removes every key from the tree.
+     */
+    public void clear() {
+        root = NIL;
+        freeList = NIL;
+        used = 0;
+    }
+
+    /**
+     * Replaces the contents of the tree with the given keys.
+     * The keys are sorted once and a balanced tree is built from them, which is much faster
+     * than inserting them one at a time after a bulk load.
+     * @param newKeys the student ID keys, all different.
+     * @param count number of keys to use from the array.
+     */
+    public void rebuild(int[] newKeys, int count) {
+        clear();
+        if (keys.length < count) {
+            allocate(count);
+        }
+        int[] sortedKeys = Arrays.copyOf(newKeys, count);
+        long[] sortedPrefixes = new long[count];
+        for (int i = 0; i < count; i++) {
+            sortedPrefixes[i] = order.prefix(sortedKeys[i]);
+        }
+        sort(sortedPrefixes, sortedKeys);
+        for (int i = 0; i < count; i++) {
+            keys[i] = sortedKeys[i];
+            prefixes[i] = sortedPrefixes[i];
+        }
+        used = count;
+        root = build(0, count, 0);
+    }
+
+    private int insert(int node, int newNode) {
+        if (node == NIL) {
+            return newNode;
+        }
+        if (priorities[newNode] > priorities[node]) {
+            // The new node becomes the root of this subtree
+            split(node, prefixes[newNode], keys[newNode]);
+            left[newNode] = splitLeft;
+            right[newNode] = splitRight;
+            update(newNode);
+            return newNode;
+        }
+        if (compare(prefixes[newNode], keys[newNode], node) < 0) {
+            left[node] = insert(left[node], newNode);
+        } else {
+            right[node] = insert(right[node], newNode);
+        }
+        update(node);
+        return node;
+    }
+
+    private int remove(int node, long prefix, int key) {
+        if (node == NIL) {
+            return NIL;
+        }
+        int cmp = compare(prefix, key, node);
+        if (cmp == 0) {
+            int merged = merge(left[node], right[node]);
+            freeNode(node);
+            return merged;
+        }
+        if (cmp < 0) {
+            left[node] = remove(left[node], prefix, key);
+        } else {
+            right[node] = remove(right[node], prefix, key);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits a subtree into keys ordered before the given key and keys ordered after it.
+     * The results are left in splitLeft and splitRight.
+     */
+    private void split(int node, long prefix, int key) {
+        if (node == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+        if (compare(prefix, key, node) > 0) {
+            split(right[node], prefix, key);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            split(left[node], prefix, key);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    /**
+     * Compares a key with the key of a node, using the cached prefix first.
+     */
+    private int compare(long prefix, int key, int node) {
+        return compareEntries(prefix, key, prefixes[node], keys[node]);
+    }
+
+    /**
+     * Links nodes from..to-1, which hold sorted keys, into a balanced subtree.
+     * Priorities fall with depth so the result is a valid treap.
+     */
+    private int build(int from, int to, int depth) {
+        if (from >= to) {
+            return NIL;
+        }
+        int node = (from + to) >>> 1;
+        left[node] = build(from, node, depth + 1);
+        right[node] = build(node + 1, to, depth + 1);
+        priorities[node] = Integer.MAX_VALUE - (depth << 26) - (nextPriority() >>> 6);
+        update(node);
+        return node;
+    }
+
+    /**
+     * Sorts keys together with their prefixes using a bottom-up merge sort.
+     */
+    private void sort(long[] sortPrefixes, int[] sortKeys) {
+        int n = sortKeys.length;
+        long[] prefixBuffer = new long[n];
+        int[] keyBuffer = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    boolean takeLeft = j >= hi || (i < mid && compareEntries(sortPrefixes[i], sortKeys[i], sortPrefixes[j], sortKeys[j]) <= 0);
+                    int from = takeLeft ? i++ : j++;
+                    prefixBuffer[k] = sortPrefixes[from];
+                    keyBuffer[k] = sortKeys[from];
+                }
+            }
+            System.arraycopy(prefixBuffer, 0, sortPrefixes, 0, n);
+            System.arraycopy(keyBuffer, 0, sortKeys, 0, n);
+        }
+    }
+
+    private int compareEntries(long prefix1, int key1, long prefix2, int key2) {
+        int cmp = Long.compareUnsigned(prefix1, prefix2);
+        if (cmp != 0 || key1 == key2) {
+            return cmp;
+        }
+        return order.compareTies(key1, key2);
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (priorities[a] > priorities[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int sizeOf(int node) {
+        return node == NIL ? 0 : sizes[node];
+    }
+
+    private void update(int node) {
+        sizes[node] = sizeOf(left[node]) + sizeOf(right[node]) + 1;
+    }
+
+    private int newNode(int key) {
+        int node;
+        if (freeList != NIL) {
+            node = freeList;
+            freeList = left[node];
+        } else {
+            if (used == keys.length) {
+                allocate(keys.length * 2);
+            }
+            node = used++;
+        }
+        keys[node] = key;
+        prefixes[node] = order.prefix(key);
+        left[node] = NIL;
+        right[node] = NIL;
+        sizes[node] = 1;
+        priorities[node] = nextPriority();
+        return node;
+    }
+
+    private void freeNode(int node) {
+        left[node] = freeList;
+        freeList = node;
+    }
+
+    private int nextPriority() {
+        // xorshift keeps the priorities random without allocating
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private void allocate(int nodes) {
+        if (keys == null) {
+            keys = new int[nodes];
+            prefixes = new long[nodes];
+            left = new int[nodes];
+            right = new int[nodes];
+            sizes = new int[nodes];
+            priorities = new int[nodes];
+            return;
+        }
+        keys = Arrays.copyOf(keys, nodes);
+        prefixes = Arrays.copyOf(prefixes, nodes);
+        left = Arrays.copyOf(left, nodes);
+        right = Arrays.copyOf(right, nodes);
+        sizes = Arrays.copyOf(sizes, nodes);
+        priorities = Arrays.copyOf(priorities, nodes);
+    }
+}
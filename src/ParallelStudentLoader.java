@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads large student files using all cores.
+ * The file is cut into chunks at line boundaries. Chunks are read, parsed and validated in
+ * parallel on a ForkJoinPool, then merged into the registry one chunk at a time in file order,
+ * so duplicate IDs are resolved exactly as in StudentFileLoader: the first occurrence wins.
+ * Only a small window of chunks is in memory at once. The summary counts two stages: parse,
+ * the chunk tasks that read, parse and validate, and insert, the merge into the registry.
+ */
+class ParallelStudentLoader {
+    static final long MIN_PARALLEL_BYTES = 16L << 20; // Smaller files load faster on one thread
+    private static final int CHUNK_SIZE = 4 << 20;     // 4 MB of lines per task
+
+    /**
+     * Loads every line of a file into the registry using the common ForkJoinPool.
+     *
+     * @param file the file to read
+     * @param registry the registry to load into
+     * @return counts of loaded and rejected lines
+     * @throws IOException if the file cannot be read
+     */
+    static LoadSummary load(Path file, StudentRegistry registry) throws IOException {
+        return load(file, registry, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads every line of a file into the registry using the common ForkJoinPool.
+     *
+     * @param file the file to read
+     * @param registry the registry to load into
+     * @param rejectsFile where to write the rejected lines, or null to only count them
+     * @return counts of loaded and rejected lines
+     * @throws IOException if the file cannot be read, or the rejects file cannot be written
+     */
+    static LoadSummary load(Path file, StudentRegistry registry, Path rejectsFile) throws IOException {
+        return load(file, registry, rejectsFile, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads every line of a file into the registry.
+     *
+     * @param file the file to read
+     * @param registry the registry to load into
+     * @param rejectsFile where to write the rejected lines, or null to only count them
+     * @param pool the pool that parses the chunks
+     * @return counts of loaded and rejected lines
+     * @throws IOException if the file cannot be read, has another number of modules than the
+     *                     registry, or the rejects file cannot be written
+     */
+    static LoadSummary load(Path file, StudentRegistry registry, Path rejectsFile, ForkJoinPool pool)
+            throws IOException {
+        LoadSummary summary = new LoadSummary();
+        LoadSummary.Stage parse = summary.stage("parse");
+        LoadSummary.Stage insert = summary.stage("insert");
+        long start = System.nanoTime();
+
+        registry.beginBulkLoad();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             RejectsWriter rejects = new RejectsWriter(rejectsFile)) {
+            int header = StudentRowParser.headerLength(channel, registry.moduleCount());
+            long[] boundaries = chunkBoundaries(channel, header);
+            long line = header > 0 ? 2 : 1; // Number of the first line of the next chunk
+            int window = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<ParsedChunk>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            int chunks = boundaries.length - 1;
+
+            try {
+                while ((next < chunks || !inFlight.isEmpty()) && !summary.registryFull) {
+                    // Keep the pool busy with the chunks after the one being merged
+                    while (next < chunks && inFlight.size() < window) {
+                        inFlight.add(pool.submit(new ParseChunkTask(channel, boundaries[next], boundaries[next + 1],
+                                registry.moduleCount())));
+                        next++;
+                    }
+                    ParsedChunk chunk = inFlight.poll().join();
+                    if (chunk.error != null) {
+                        throw chunk.error;
+                    }
+                    parse.rows += chunk.lines;
+                    parse.rejected += chunk.rejected;
+                    parse.nanos += chunk.nanos;
+                    long mergeStart = System.nanoTime();
+                    merge(chunk, line, registry, summary, rejects, insert);
+                    insert.nanos += System.nanoTime() - mergeStart;
+                    line += chunk.lines;
+                }
+            } finally {
+                // Stop the chunks left after an error or a full registry, and wait for any already
+                // reading, as the channel is closed next
+                for (ForkJoinTask<ParsedChunk> task : inFlight) {
+                    task.cancel(false);
+                }
+                for (ForkJoinTask<ParsedChunk> task : inFlight) {
+                    task.quietlyJoin();
+                }
+            }
+            summary.rejectsFile = rejects.file();
+        } finally {
+            registry.endBulkLoad();
+        }
+
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Splits the file after its header into chunks of about CHUNK_SIZE bytes that end just
+     * after a line terminator.
+     * @return offsets where chunks start, followed by the file size
+     */
+    private static long[] chunkBoundaries(FileChannel channel, long start) throws IOException {
+        long size = channel.size();
+        long[] boundaries = new long[(int) (size / CHUNK_SIZE) + 2];
+        int count = 0;
+        boundaries[count++] = start;
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long position = start + CHUNK_SIZE;
+        while (position < size) {
+            // Move forward to the byte after the next line terminator
+            long lineEnd = -1;
+            long scan = position;
+            while (lineEnd < 0 && scan < size) {
+                probe.clear();
+                int read = channel.read(probe, scan);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        lineEnd = scan + i + 1;
+                        break;
+                    }
+                }
+                scan += read;
+            }
+            if (lineEnd < 0 || lineEnd >= size) {
+                break;
+            }
+            boundaries[count++] = lineEnd;
+            position = lineEnd + CHUNK_SIZE;
+        }
+        boundaries[count++] = size;
+        return java.util.Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Adds the parsed rows of one chunk to the registry and writes its rejected lines, in file order.
+     * @param firstLine number of the first line of the chunk in the file
+     */
+    static void merge(ParsedChunk chunk, long firstLine, StudentRegistry registry, LoadSummary summary,
+                      RejectsWriter rejects, LoadSummary.Stage stats) throws IOException {
+        summary.bytes += chunk.bytes.length;
+
+        int modules = registry.moduleCount();
+        double[] marks = new double[modules];
+        int row = 0;
+        for (int line = 0; line < chunk.lines; line++) {
+            if (registry.isFull()) {
+                summary.registryFull = true;
+                return;
+            }
+            stats.rows++;
+            int status = chunk.statuses[line];
+            if (status == StudentRowParser.OK) {
+                System.arraycopy(chunk.marks, row * modules, marks, 0, modules);
+                if (registry.add(chunk.keys[row], chunk.names[row], marks)) {
+                    summary.loaded++;
+                } else {
+                    status = StudentRowParser.DUPLICATE;
+                    stats.rejected++;
+                }
+                row++;
+            }
+            summary.count(status);
+            if (status != StudentRowParser.OK) {
+                rejects.write(firstLine + line, status, chunk.bytes, chunk.lineStarts[line], chunk.lineEnds[line]);
+            }
+        }
+    }
+
+    /**
+     * Valid rows of one chunk, in file order, with the position and status of every line.
+     */
+    static class ParsedChunk {
+        final int modules;
+        byte[] bytes;
+        int lines;
+        int[] lineStarts = new int[1024];
+        int[] lineEnds = new int[1024]; // Index after the last byte of each line, excluding the line feed
+        int[] statuses = new int[1024];
+        int rejected;
+        int count;
+        int[] keys = new int[1024];
+        String[] names = new String[1024];
+        double[] marks;
+        long nanos;
+        IOException error;
+
+        ParsedChunk(int modules) {
+            this.modules = modules;
+            marks = new double[1024 * modules];
+        }
+
+        void addLine(int start, int end, int status) {
+            if (lines == lineStarts.length) {
+                lineStarts = java.util.Arrays.copyOf(lineStarts, lines * 2);
+                lineEnds = java.util.Arrays.copyOf(lineEnds, lines * 2);
+                statuses = java.util.Arrays.copyOf(statuses, lines * 2);
+            }
+            lineStarts[lines] = start;
+            lineEnds[lines] = end;
+            statuses[lines] = status;
+            lines++;
+            if (status != StudentRowParser.OK) {
+                rejected++;
+            }
+        }
+
+        void add(StudentRowParser parser) {
+            if (count == keys.length) {
+                keys = java.util.Arrays.copyOf(keys, count * 2);
+                names = java.util.Arrays.copyOf(names, count * 2);
+                marks = java.util.Arrays.copyOf(marks, count * 2 * modules);
+            }
+            keys[count] = parser.idKey;
+            names[count] = parser.name;
+            System.arraycopy(parser.marks, 0, marks, count * modules, modules);
+            count++;
+        }
+    }
+
+    /**
+     * Reads one chunk with a positional read and parses every line in it.
+     */
+    private static class ParseChunkTask extends RecursiveTask<ParsedChunk> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final int modules;
+
+        ParseChunkTask(FileChannel channel, long start, long end, int modules) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.modules = modules;
+        }
+
+        @Override
+        protected ParsedChunk compute() {
+            long taskStart = System.nanoTime();
+            byte[] bytes = new byte[(int) (end - start)];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        throw new IOException("File changed while loading");
+                    }
+                }
+            } catch (IOException e) {
+                ParsedChunk failed = new ParsedChunk(modules);
+                failed.error = e;
+                return failed;
+            }
+            ParsedChunk chunk = parse(bytes, 0, modules);
+            chunk.nanos = System.nanoTime() - taskStart;
+            return chunk;
+        }
+    }
+
+    /**
+     * Parses every line of a block of bytes.
+     * @param bytes the lines, the last one with or without a line feed
+     * @param from index of the first byte of the first line
+     * @param modules number of marks on each line
+     * @return the parsed lines, holding the bytes
+     */
+    static ParsedChunk parse(byte[] bytes, int from, int modules) {
+        ParsedChunk chunk = new ParsedChunk(modules);
+        chunk.bytes = bytes;
+        StudentRowParser parser = new StudentRowParser(modules);
+        int lineStart = from;
+        for (int i = from; i <= bytes.length; i++) {
+            if (i == bytes.length ? lineStart < i : bytes[i] == '\n') {
+                int status = parser.parse(bytes, lineStart, i);
+                chunk.addLine(lineStart, i, status);
+                if (status == StudentRowParser.OK) {
+                    chunk.add(parser);
+                }
+                lineStart = i + 1;
+            }
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the lines a load rejected to a file, so they can be corrected and loaded again.
+ * Each line of the file has the form lineNumber,reason,original line, where the line number
+ * counts from 1 at the start of the loaded file and the reason is one of MALFORMED,
+ * INVALID_ID, INVALID_MARKS or DUPLICATE. The original bytes are copied unchanged.
+ * <p>
+ * The file is only created when the first line is rejected, and a file left by an earlier
+ * load is deleted, so it never describes another load.
+ */
+class RejectsWriter implements Closeable {
+    private static final String HEADER = "#line,reason,row\n";
+    private static final byte[][] REASONS = { // Indexed by StudentRowParser status
+            null, bytes("MALFORMED"), bytes("INVALID_ID"), bytes("INVALID_MARKS"), bytes("DUPLICATE")};
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final Path file;
+    private OutputStream out; // null until the first line is rejected
+    private long written;
+
+    /**
+     * Constructor for a writer that creates the file when the first line is rejected.
+     * @param file the rejects file, or null to count rejected lines without writing them.
+     * @throws IOException if a rejects file left by an earlier load cannot be deleted
+     */
+    RejectsWriter(Path file) throws IOException {
+        this.file = file;
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Writes one rejected line.
+     * @param lineNumber number of the line in the loaded file, from 1.
+     * @param reason the StudentRowParser status the line was rejected with.
+     * @param buffer bytes holding the line.
+     * @param start index of the first byte of the line.
+     * @param end index after the last byte of the line, excluding the line feed.
+     * @throws IOException if the file cannot be written
+     */
+    void write(long lineNumber, int reason, byte[] buffer, int start, int end) throws IOException {
+        written++;
+        if (file == null) {
+            return;
+        }
+        if (out == null) {
+            out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+            out.write(bytes(HEADER));
+        }
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        out.write(bytes(Long.toString(lineNumber)));
+        out.write(',');
+        out.write(REASONS[reason]);
+        out.write(',');
+        out.write(buffer, start, end - start);
+        out.write('\n');
+    }
+
+    /**
+     * Getter for the number of rejected lines written.
+     * @return number of calls to write.
+     */
+    long written() {
+        return written;
+    }
+
+    /**
+     * Getter for the file the rejected lines went to.
+     * @return the file, or null if no line was written to one.
+     */
+    Path file() {
+        return out == null ? null : file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
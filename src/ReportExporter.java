@@ -0,0 +1,403 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Exports reports to CSV or JSON files for other programs to read.
+ * The complete report lists the students in rank order and the name report in name order,
+ * one row per student with the ID, name, every mark, the total, the average and the grade;
+ * the summary report gives the cohort totals. Numbers are written in full, not rounded like
+ * the console reports.
+ * <p>
+ * Rows are streamed from the registry in chunks of CHUNK_ROWS students. Each chunk is one page
+ * of the rank or name index, copied under its own short read lock, so registrations and
+ * changes carry on while the file is formatted and written. The chunks are formatted and
+ * encoded on a ForkJoinPool while the next ones are copied, and written out in order. Only a
+ * small window of chunks is in memory at once, so any number of students is exported in
+ * constant memory.
+ * <p>
+ * Like paging through the lists in the menu, the export is not a view of one point in time: a
+ * student registered, deleted or moved in the order while the file is written can be missed
+ * or appear twice where one chunk ends and the next begins.
+ */
+class ReportExporter {
+    static final int CHUNK_ROWS = 4096;
+
+    /**
+     * The reports that can be exported.
+     */
+    enum Report {
+        SUMMARY, COMPLETE, NAMES;
+
+        /**
+         * Getter for the name used in file names and JSON.
+         * @return the name in lower case.
+         */
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * The file formats reports can be exported to.
+     */
+    enum Format {
+        CSV, JSON;
+
+        /**
+         * Getter for the file name extension.
+         * @return the extension in lower case, without the dot.
+         */
+        String extension() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Exports a report using the common ForkJoinPool.
+     *
+     * @param registry the registry to report on
+     * @param report the report to export
+     * @param format the file format
+     * @param file the file to write, replaced if it exists
+     * @return the number of rows exported: students, or values of the summary
+     * @throws IOException if the file cannot be written
+     */
+    static long export(StudentRegistry registry, Report report, Format format, Path file) throws IOException {
+        return export(registry, report, format, file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Exports a report.
+     * The file is written under a temporary name and then moved into place, so an existing
+     * export is never left half written. The temporary file is deleted if writing fails.
+     *
+     * @param registry the registry to report on
+     * @param report the report to export
+     * @param format the file format
+     * @param file the file to write, replaced if it exists
+     * @param pool the pool that formats the chunks
+     * @return the number of rows exported: students, or values of the summary
+     * @throws IOException if the file cannot be written
+     */
+    static long export(StudentRegistry registry, Report report, Format format, Path file, ForkJoinPool pool)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long rows;
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (report == Report.SUMMARY) {
+                    StringBuilder text = new StringBuilder();
+                    rows = summary(registry.aggregates(), format, text);
+                    write(out, text);
+                } else {
+                    rows = students(registry, report, format, out, pool);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return rows;
+    }
+
+    /**
+     * Formats the summary report.
+     * @return the number of values in the summary
+     */
+    private static long summary(CohortAggregates totals, Format format, StringBuilder text) {
+        int modules = totals.moduleCount();
+        if (format == Format.CSV) {
+            text.append("measure,module,value\n");
+            text.append("students,,").append(totals.students()).append('\n');
+            for (int m = 0; m < modules; m++) {
+                text.append("passes,").append(m + 1).append(',').append(totals.passes(m)).append('\n');
+            }
+            text.append("passed_all,,").append(totals.passedAll()).append('\n');
+            for (int m = 0; m < modules; m++) {
+                text.append("mean,").append(m + 1).append(',');
+                number(text, totals.mean(m), format);
+                text.append('\n');
+            }
+            for (char grade : CohortAggregates.GRADES) {
+                text.append("grade_").append(grade).append(",,").append(totals.gradeCount(grade)).append('\n');
+            }
+        } else {
+            text.append("{\"report\":\"summary\",\"students\":").append(totals.students())
+                    .append(",\"passedAll\":").append(totals.passedAll()).append(",\"modules\":[");
+            for (int m = 0; m < modules; m++) {
+                text.append(m == 0 ? "" : ",").append("{\"module\":").append(m + 1)
+                        .append(",\"passes\":").append(totals.passes(m)).append(",\"mean\":");
+                number(text, totals.mean(m), format);
+                text.append('}');
+            }
+            text.append("],\"grades\":{");
+            for (char grade : CohortAggregates.GRADES) {
+                text.append(grade == CohortAggregates.GRADES[0] ? "" : ",")
+                        .append('"').append(grade).append("\":").append(totals.gradeCount(grade));
+            }
+            text.append("}}\n");
+        }
+        return 2 + 2L * modules + CohortAggregates.GRADES.length;
+    }
+
+    /**
+     * Streams one row per student in the order of the report.
+     * @return the number of students exported
+     */
+    private static long students(StudentRegistry registry, Report report, Format format, FileChannel out,
+                                 ForkJoinPool pool) throws IOException {
+        int modules = registry.moduleCount();
+        StringBuilder header = new StringBuilder();
+        if (format == Format.CSV) {
+            header.append("id,name");
+            for (int m = 0; m < modules; m++) {
+                header.append(",module_").append(m + 1);
+            }
+            header.append(",total,average,grade\n");
+        } else {
+            header.append("{\"report\":\"").append(report.label()).append("\",\"modules\":").append(modules)
+                    .append(",\"students\":[\n");
+        }
+        write(out, header);
+
+        RowStream stream = new RowStream(out, pool, format);
+        int rows = 0;
+        try {
+            Chunk chunk;
+            do {
+                chunk = new Chunk(modules, rows);
+                // Only the copy holds the read lock, so writers get in between chunks
+                if (report == Report.COMPLETE) {
+                    registry.forEachByRank(rows, CHUNK_ROWS, chunk::add);
+                } else {
+                    registry.forEachByName(rows, CHUNK_ROWS, chunk::add);
+                }
+                if (chunk.rows > 0) {
+                    stream.submit(chunk);
+                    rows += chunk.rows;
+                }
+            } while (chunk.rows == CHUNK_ROWS);
+            stream.finish();
+        } finally {
+            stream.cancel();
+        }
+        if (format == Format.JSON) {
+            write(out, new StringBuilder(rows == 0 ? "]}\n" : "\n]}\n"));
+        }
+        return rows;
+    }
+
+    /**
+     * Formats chunks of a report in parallel and writes them in order.
+     */
+    private static class RowStream {
+        private final FileChannel out;
+        private final ForkJoinPool pool;
+        private final Format format;
+        private final int window;
+        private final ArrayDeque<ForkJoinTask<byte[]>> inFlight = new ArrayDeque<>();
+
+        RowStream(FileChannel out, ForkJoinPool pool, Format format) {
+            this.out = out;
+            this.pool = pool;
+            this.format = format;
+            window = Math.max(2, pool.getParallelism() * 2);
+        }
+
+        /**
+         * Hands a chunk to the pool, first writing the oldest chunk if the window is full.
+         */
+        void submit(Chunk chunk) throws IOException {
+            if (inFlight.size() >= window) {
+                writeOldest();
+            }
+            inFlight.add(pool.submit(() -> chunk.format(format)));
+        }
+
+        /**
+         * Writes the chunks still being formatted.
+         */
+        void finish() throws IOException {
+            while (!inFlight.isEmpty()) {
+                writeOldest();
+            }
+        }
+
+        /**
+         * Stops the chunks left after an error.
+         */
+        void cancel() {
+            for (ForkJoinTask<byte[]> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+
+        private void writeOldest() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(inFlight.poll().join());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * The values of up to CHUNK_ROWS consecutive students of a report.
+     */
+    private static class Chunk {
+        final int modules;
+        final long firstRow; // Number of students before the chunk in the report
+        final int[] keys = new int[CHUNK_ROWS];
+        final String[] names = new String[CHUNK_ROWS];
+        final double[] marks;
+        int rows;
+
+        Chunk(int modules, long firstRow) {
+            this.modules = modules;
+            this.firstRow = firstRow;
+            marks = new double[CHUNK_ROWS * modules];
+        }
+
+        void add(Student student) {
+            StudentColumns columns = student.getColumns();
+            int slot = student.getSlot();
+            keys[rows] = student.getIdKey();
+            names[rows] = columns.name(slot);
+            for (int m = 0; m < modules; m++) {
+                marks[rows * modules + m] = columns.mark(m, slot);
+            }
+            rows++;
+        }
+
+        /**
+         * Formats the rows of the chunk.
+         * @return the rows encoded as UTF-8
+         */
+        byte[] format(Format format) {
+            StringBuilder text = new StringBuilder(rows * (48 + 12 * modules));
+            for (int i = 0; i < rows; i++) {
+                double total = 0;
+                for (int m = 0; m < modules; m++) {
+                    total += marks[i * modules + m];
+                }
+                double average = total / modules;
+                if (format == Format.CSV) {
+                    text.append(IdIndex.idOf(keys[i])).append(',');
+                    csvText(text, names[i]);
+                    for (int m = 0; m < modules; m++) {
+                        text.append(',');
+                        number(text, marks[i * modules + m], format);
+                    }
+                    text.append(',');
+                    number(text, total, format);
+                    text.append(',');
+                    number(text, average, format);
+                    text.append(',').append(Student.getGrade(average)).append('\n');
+                } else {
+                    text.append(firstRow + i == 0 ? "" : ",\n").append("{\"id\":\"").append(IdIndex.idOf(keys[i]))
+                            .append("\",\"name\":");
+                    jsonText(text, names[i]);
+                    text.append(",\"marks\":[");
+                    for (int m = 0; m < modules; m++) {
+                        text.append(m == 0 ? "" : ",");
+                        number(text, marks[i * modules + m], format);
+                    }
+                    text.append("],\"total\":");
+                    number(text, total, format);
+                    text.append(",\"average\":");
+                    number(text, average, format);
+                    text.append(",\"grade\":\"").append(Student.getGrade(average)).append("\"}");
+                }
+            }
+            return text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Appends a number in full; NaN and infinities, which JSON cannot hold, are written as
+     * null in JSON and left empty in CSV.
+     */
+    private static void number(StringBuilder text, double value, Format format) {
+        if (Double.isFinite(value)) {
+            text.append(value);
+        } else if (format == Format.JSON) {
+            text.append("null");
+        }
+    }
+
+    /**
+     * Appends a CSV field, quoted when it holds a comma, a quote or a line break.
+     */
+    private static void csvText(StringBuilder text, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            text.append(value);
+            return;
+        }
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            text.append(c == '"' ? "\"\"" : String.valueOf(c));
+        }
+        text.append('"');
+    }
+
+    /**
+     * Appends a JSON string, escaping quotes, backslashes and control characters.
+     */
+    private static void jsonText(StringBuilder text, String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        text.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        text.append(c);
+                    }
+            }
+        }
+        text.append('"');
+    }
+
+    private static void write(FileChannel out, StringBuilder text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
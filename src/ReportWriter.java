@@ -0,0 +1,511 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Formats report lines into a reusable character buffer and writes it out in large blocks.
+ * The output is the same as the printf and println calls it replaces: text is padded to
+ * fixed widths like %-Ns, and numbers are rounded half up to two decimals like %.2f,
+ * using the decimal separator of the default locale.
+ * <p>
+ * Lists of students are read from the registry a page at a time through paged(). While the
+ * registry holds its lock for a page, the buffer grows instead of being written out, so a
+ * target that blocks, such as the socket of a slow client, never holds up changes to the
+ * registry. Like paging in the menu, a student moved between pages can be missed or repeated.
+ */
+class ReportWriter implements Flushable, Closeable {
+    private static final int BUFFER_SIZE = 1 << 14;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final double MAX_FAST_FIXED = 1e9;  // Larger numbers are formatted by String.format
+    private static final double TIE_MARGIN = 1e-3;     // Hundredths this close to half are formatted by String.format
+    static final int PAGE_ROWS = 256;                  // Students read from the registry per lock by paged()
+
+    /**
+     * A lookup that visits students a page at a time, such as StudentRegistry.forEachByRank.
+     */
+    @FunctionalInterface
+    interface PagedLookup {
+        /**
+         * Visits some of the students.
+         * @param from number of students to skip.
+         * @param count maximum number of students to visit.
+         * @param action called with a view of each student.
+         */
+        void forEach(int from, int count, Consumer<Student> action);
+    }
+
+    private final Writer out;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private final char decimalSeparator;
+    private final boolean asciiDigits;
+    private int length;
+    private boolean holding; // A page is being read under the registry lock; grow, do not write out
+
+    /**
+     * Constructor for the ReportWriter class.
+     * @param out where the formatted text is written.
+     */
+    ReportWriter(Writer out) {
+        this.out = out;
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.asciiDigits = symbols.getZeroDigit() == '0';
+    }
+
+    /**
+     * Constructor for the ReportWriter class.
+     * A PrintStream such as System.out keeps its own character encoding; any other stream
+     * is written as UTF-8.
+     * @param out where the formatted text is written.
+     */
+    ReportWriter(OutputStream out) {
+        this(out instanceof PrintStream ? new PrintStreamWriter((PrintStream) out)
+                : new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends text as it is.
+     * @param text the text.
+     * @return this writer.
+     */
+    ReportWriter text(String text) {
+        int textLength = text.length();
+        if (length + textLength > buffer.length) {
+            ensure(textLength);
+            if (textLength > buffer.length) {
+                write(text);
+                return this;
+            }
+        }
+        text.getChars(0, textLength, buffer, length);
+        length += textLength;
+        return this;
+    }
+
+    /**
+     * Appends a character.
+     * @param c the character.
+     * @return this writer.
+     */
+    ReportWriter text(char c) {
+        ensure(1);
+        buffer[length++] = c;
+        return this;
+    }
+
+    /**
+     * Appends text padded with spaces on the right, like %-Ns.
+     * @param text the text.
+     * @param width the minimum width.
+     * @return this writer.
+     */
+    ReportWriter left(String text, int width) {
+        text(text);
+        return spaces(width - text.length());
+    }
+
+    /**
+     * Appends a character padded with spaces on the right, like %-Nc.
+     * @param c the character.
+     * @param width the minimum width.
+     * @return this writer.
+     */
+    ReportWriter left(char c, int width) {
+        ensure(1);
+        buffer[length++] = c;
+        return spaces(width - 1);
+    }
+
+    /**
+     * Appends a student ID padded with spaces on the right, without creating a String.
+     * @param key the int key of the ID.
+     * @param width the minimum width.
+     * @return this writer.
+     */
+    ReportWriter leftId(int key, int width) {
+        ensure(8);
+        buffer[length] = 'w';
+        for (int i = 7; i >= 1; i--) {
+            buffer[length + i] = (char) ('0' + key % 10);
+            key /= 10;
+        }
+        length += 8;
+        return spaces(width - 8);
+    }
+
+    /**
+     * Appends a number with two decimals padded with spaces on the right, like %-N.2f.
+     * @param value the number.
+     * @param width the minimum width.
+     * @return this writer.
+     */
+    ReportWriter leftFixed2(double value, int width) {
+        return spaces(width - fixed2(value));
+    }
+
+    /**
+     * Appends a number with one decimal padded with spaces on the right, like %-N.1f.
+     * Only used for a few values per report, so it has no fast path.
+     * @param value the number.
+     * @param width the minimum width.
+     * @return this writer.
+     */
+    ReportWriter leftFixed1(double value, int width) {
+        String formatted = String.format("%.1f", value);
+        return text(formatted).spaces(width - formatted.length());
+    }
+
+    /**
+     * Appends a number the way string concatenation does.
+     * @param value the number.
+     * @return this writer.
+     */
+    ReportWriter number(double value) {
+        return text(Double.toString(value));
+    }
+
+    /**
+     * Appends the line separator of the platform, like println and %n.
+     * @return this writer.
+     */
+    ReportWriter newline() {
+        return text(LINE_SEPARATOR);
+    }
+
+    /**
+     * Appends a line of the short student listing, the same as Student.displayDetailsShort.
+     * @param student the student.
+     * @return this writer.
+     */
+    ReportWriter shortDetails(Student student) {
+        StudentColumns columns = student.getColumns();
+        int slot = student.getSlot();
+        double average = columns.average(slot);
+        return leftId(student.getIdKey(), 10).text(' ')
+                .left(columns.name(slot), 20).text(' ')
+                .leftFixed2(average, 10).text(' ')
+                .left(Student.getGrade(average), 10).newline();
+    }
+
+    /**
+     * Appends the details of a student, the same as Student.displayDetails.
+     * @param student the student.
+     * @return this writer.
+     */
+    ReportWriter details(Student student) {
+        StudentColumns columns = student.getColumns();
+        int slot = student.getSlot();
+        double total = columns.total(slot);
+        double average = columns.average(slot);
+        text("Student ID: ").leftId(student.getIdKey(), 0).newline();
+        text("    Student Name: ").text(columns.name(slot)).newline();
+        for (int m = 0; m < columns.moduleCount(); m++) {
+            text("    Module ").text(Integer.toString(m + 1)).text(" Marks: ").number(columns.mark(m, slot)).newline();
+        }
+        text("    Total: ").number(total).newline();
+        text("    Average: ").number(average).newline();
+        return text("    Grade: ").text(Student.getGrade(average)).newline();
+    }
+
+    /**
+     * Appends a row of the complete report, ending with \n as the report always has.
+     * @param student the student.
+     * @return this writer.
+     */
+    ReportWriter completeReportRow(Student student) {
+        StudentColumns columns = student.getColumns();
+        int slot = student.getSlot();
+        double total = columns.total(slot);
+        double average = columns.average(slot);
+        leftId(student.getIdKey(), 15).text(' ').left(columns.name(slot), 20).text(' ');
+        for (int m = 0; m < columns.moduleCount(); m++) {
+            leftFixed2(columns.mark(m, slot), 16).text(' ');
+        }
+        return leftFixed2(total, 10).text(' ')
+                .leftFixed2(average, 10).text(' ')
+                .left(Student.getGrade(average), 10).text('\n');
+    }
+
+    /**
+     * Appends the summary report.
+     * @param totals the cohort totals to report.
+     * @return this writer.
+     */
+    ReportWriter summaryReport(CohortAggregates totals) {
+        text("Summary Report:").newline();
+        text("Total student registrations: ").text(Long.toString(totals.students())).newline();
+        for (int m = 0; m < totals.moduleCount(); m++) {
+            text("Total students scoring more than 40 marks in Module ").text(Integer.toString(m + 1))
+                    .text(": ").text(Long.toString(totals.passes(m))).newline();
+        }
+        text("Total students scoring more than 40 marks in all modules: ")
+                .text(Long.toString(totals.passedAll())).newline();
+        text("Average marks:");
+        for (int m = 0; m < totals.moduleCount(); m++) {
+            text(m == 0 ? " Module " : ", Module ").text(Integer.toString(m + 1)).text(' ').leftFixed2(totals.mean(m), 0);
+        }
+        newline();
+        text("Grades:");
+        for (char grade : CohortAggregates.GRADES) {
+            text(' ').text(grade).text('=').text(Long.toString(totals.gradeCount(grade)));
+        }
+        return newline();
+    }
+
+    /**
+     * Appends the analytics report: percentiles and a histogram of the marks of each module
+     * and of the averages, then the top and bottom students by average.
+     * @param totals the cohort totals to report.
+     * @param registry the registry the top and bottom students are read from.
+     * @param count number of top and of bottom students to list.
+     * @return this writer.
+     */
+    ReportWriter analyticsReport(CohortAggregates totals, StudentRegistry registry, int count) {
+        if (totals.students() == 0) {
+            return text("\nNo student information available to display.").newline();
+        }
+        text("\nAnalytics Report:").newline().newline();
+        left("", 10);
+        for (int series = 0; series <= totals.averageSeries(); series++) {
+            text(' ').left(series == totals.averageSeries() ? "Average" : "Module " + (series + 1), 10);
+        }
+        newline();
+        percentileRow(totals, "Median", 0.5);
+        percentileRow(totals, "90th", 0.9);
+        percentileRow(totals, "10th", 0.1);
+        newline();
+        text("Marks histogram:").newline();
+        for (int band = 0; band < CohortAggregates.BANDS; band++) {
+            int low = band * 100 / CohortAggregates.BANDS;
+            int high = low + 100 / CohortAggregates.BANDS - (band == CohortAggregates.BANDS - 1 ? 0 : 1);
+            left(low + "-" + high, 10);
+            for (int series = 0; series <= totals.averageSeries(); series++) {
+                text(' ').left(Long.toString(totals.bandCount(series, band)), 10);
+            }
+            newline();
+        }
+        long outside = 0;
+        for (int series = 0; series <= totals.averageSeries(); series++) {
+            outside += totals.unbucketed(series);
+        }
+        if (outside > 0) {
+            left("Other", 10);
+            for (int series = 0; series <= totals.averageSeries(); series++) {
+                text(' ').left(Long.toString(totals.unbucketed(series)), 10);
+            }
+            newline();
+        }
+        newline();
+        text("Top ").text(Integer.toString(count)).text(" students:").newline();
+        paged((from, rows, action) -> registry.forEachByRank(from, Math.min(rows, count - from), action),
+                PAGE_ROWS, this::shortDetails);
+        newline();
+        text("Bottom ").text(Integer.toString(count)).text(" students:").newline();
+        int size = registry.size();
+        int first = Math.max(0, size - count);
+        paged((from, rows, action) -> registry.forEachByRank(first + from, Math.min(rows, count - from), action),
+                PAGE_ROWS, this::shortDetails);
+        return this;
+    }
+
+    private void percentileRow(CohortAggregates totals, String label, double fraction) {
+        left(label, 10);
+        for (int series = 0; series <= totals.averageSeries(); series++) {
+            double value = totals.percentile(series, fraction);
+            text(' ');
+            if (Double.isNaN(value)) {
+                left("-", 10);
+            } else {
+                leftFixed1(value, 10); // All the precision the histogram has
+            }
+        }
+        newline();
+    }
+
+    /**
+     * Appends a line for every student a lookup visits, reading them a page at a time.
+     * Each page is formatted while the lookup holds the registry lock and written out after.
+     * @param lookup the students to list.
+     * @param pageRows students per page; a lookup that cannot skip cheaply can take them all at once.
+     * @param line appends the line of one student.
+     * @return this writer.
+     */
+    ReportWriter paged(PagedLookup lookup, int pageRows, Consumer<Student> line) {
+        int[] visited = new int[1];
+        int from = 0;
+        do {
+            visited[0] = 0;
+            holding = true;
+            try {
+                lookup.forEach(from, pageRows, student -> {
+                    line.accept(student);
+                    visited[0]++;
+                });
+            } finally {
+                holding = false;
+            }
+            from += visited[0];
+            if (buffer.length > BUFFER_SIZE) {
+                drain();
+                buffer = new char[BUFFER_SIZE];
+            }
+        } while (visited[0] == pageRows);
+        return this;
+    }
+
+    /**
+     * Appends the complete report: every student in rank order, highest average first.
+     * @param registry the registry to report on.
+     * @return this writer.
+     */
+    ReportWriter completeReport(StudentRegistry registry) {
+        if (registry.size() == 0) {
+            return text("\nNo student information available to display.").newline();
+        }
+        text("\nDetailed Report:\n").newline();
+        int modules = registry.moduleCount();
+        left("Student ID", 15).text(' ').left("Student Name", 20).text(' ');
+        for (int m = 0; m < modules; m++) {
+            left("Module " + (m + 1), 16).text(' ');
+        }
+        left("Total", 10).text(' ').left("Average", 10).text(' ').left("Grade", 10).text('\n');
+        text("-".repeat(59 + 17 * modules)).newline(); // As wide as the columns
+        paged(registry::forEachByRank, PAGE_ROWS, this::completeReportRow);
+        return this;
+    }
+
+    /**
+     * Writes out the buffered text and flushes the target.
+     */
+    @Override
+    public void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out the buffered text and closes the target.
+     * @throws IOException if the target cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        drain();
+        out.close();
+    }
+
+    private ReportWriter spaces(int count) {
+        while (count > 0) {
+            ensure(1);
+            int n = Math.min(count, buffer.length - length);
+            java.util.Arrays.fill(buffer, length, length + n, ' ');
+            length += n;
+            count -= n;
+        }
+        return this;
+    }
+
+    /**
+     * Formats a number rounded half up to two decimals.
+     * The hundredths are computed directly unless the number is negative or -0.0, very large,
+     * not a number, or so close to a rounding tie that its shortest decimal form decides the
+     * result; those are left to String.format so the output never differs.
+     * @return number of characters appended
+     */
+    private int fixed2(double value) {
+        double hundredths = value * 100;
+        double fraction = hundredths - Math.floor(hundredths);
+        // The sign bit also catches -0.0, which %.2f prints as -0.00
+        if (!asciiDigits || Double.doubleToRawLongBits(value) < 0 || !(value < MAX_FAST_FIXED)
+                || Math.abs(fraction - 0.5) < TIE_MARGIN) {
+            String formatted = String.format("%.2f", value);
+            text(formatted);
+            return formatted.length();
+        }
+        long cents = (long) Math.floor(hundredths + 0.5);
+        long whole = cents / 100;
+        int part = (int) (cents % 100);
+        ensure(24);
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[length + i] = (char) ('0' + whole % 10);
+            whole /= 10;
+        }
+        length += digits;
+        buffer[length++] = decimalSeparator;
+        buffer[length++] = (char) ('0' + part / 10);
+        buffer[length++] = (char) ('0' + part % 10);
+        return digits + 3;
+    }
+
+    private void ensure(int room) {
+        if (length + room > buffer.length) {
+            if (holding) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + room));
+            } else {
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        if (length > 0) {
+            try {
+                out.write(buffer, 0, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            length = 0;
+        }
+    }
+
+    private void write(String text) {
+        try {
+            out.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes blocks of characters to a PrintStream in its own encoding.
+     */
+    private static class PrintStreamWriter extends Writer {
+        private final PrintStream out;
+
+        PrintStreamWriter(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int count) {
+            out.print(new String(chars, offset, count));
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+}
@@ -1,16 +1,48 @@
+/**
+ * View of one student record stored in StudentColumns.
+ * A view taken from the registry is only valid until the next deletion, which may move records.
+ * Changes made through a registry view go through the registry so its indexes stay in step.
+ */
 class Student {
-    private String studentID;
-    private String studentName;
-    private Module moduleMarks = new Module (0,0,0);
+    private final StudentRegistry registry; // null when the student is not registered
+    private final StudentColumns columns;
+    private final int slot;
 
     /**
-     * Constructor to create a new student object.
+     * Constructor to create a new student object that is not yet registered.
      * @param studentID ID of the student.
      * @param studentName Name of the student.
      */
     public Student(String studentID, String studentName) {
-        this.studentID = studentID;
-        this.studentName = studentName;
+        this(studentID, studentName, StudentColumns.DEFAULT_MODULES);
+    }
+
+    /**
+     * Constructor to create a new student object with marks for a number of modules.
+     * @param studentID ID of the student.
+     * @param studentName Name of the student.
+     * @param modules number of modules.
+     */
+    Student(String studentID, String studentName, int modules) {
+        int key = IdIndex.keyOf(studentID);
+        if (key < 0) {
+            throw new IllegalArgumentException("Invalid student ID: " + studentID);
+        }
+        this.registry = null;
+        this.columns = new HeapStudentColumns(1, modules);
+        this.slot = 0;
+        columns.set(0, key, studentName);
+    }
+
+    /**
+     * Constructor to create a view over a registered student.
+     * @param registry registry holding the student.
+     * @param slot slot of the student in the registry.
+     */
+    Student(StudentRegistry registry, int slot) {
+        this.registry = registry;
+        this.columns = registry.columns();
+        this.slot = slot;
     }
 
     /**
@@ -18,15 +50,23 @@ class Student {
      * @return Student ID.
      */
     public String getStudentID() {
-        return studentID;
+        return IdIndex.idOf(columns.idKey(slot));
     }
 
     /**
-     * Setter for the student ID.
-     * @return Student ID.
+     * Getter for the int key of the student ID.
+     * @return Student ID key.
+     */
+    int getIdKey() {
+        return columns.idKey(slot);
+    }
+
+    /**
+     * Getter for the student name.
+     * @return Student name.
      */
     public String getStudentName() {
-        return studentName;
+        return columns.name(slot);
     }
 
     /**
@@ -34,7 +74,11 @@ class Student {
      * @param studentName Name of the student.
      */
     public void setStudentName(String studentName) {
-        this.studentName = studentName;
+        if (registry != null) {
+            registry.setStudentName(getIdKey(), studentName);
+        } else {
+            columns.setName(slot, studentName);
+        }
     }
 
     /**
@@ -42,41 +86,62 @@ class Student {
      * @return Module marks.
      */
     public Module getModuleMarks() {
-        return moduleMarks;
+        return new Module(this);
+    }
+
+    /**
+     * Getter for the storage holding this student.
+     * @return storage of the student.
+     */
+    StudentColumns getColumns() {
+        return columns;
+    }
+
+    /**
+     * Getter for the slot of this student in its storage.
+     * @return slot of the student.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Replaces one mark of the student.
+     * @param module module number starting at 0.
+     * @param mark the new mark.
+     */
+    void setMark(int module, double mark) {
+        if (registry != null) {
+            registry.setMark(getIdKey(), module, mark);
+        } else {
+            columns.setMark(module, slot, mark);
+        }
     }
 
     /**
      * Setter for the module marks.
-     * @param mark1 mark1 of the module.
-     * @param mark2 mark2 of the module.
-     * @param mark3 mark3 of the module.
+     * @param marks mark of each module, one per module.
      */
-    public void setModuleMarks(double mark1, double mark2, double mark3) {
-        moduleMarks.setMark1(mark1);
-        moduleMarks.setMark2(mark2);
-        moduleMarks.setMark3(mark3);
+    public void setModuleMarks(double... marks) {
+        if (marks.length != columns.moduleCount()) {
+            throw new IllegalArgumentException("Expected " + columns.moduleCount() + " marks, got " + marks.length);
+        }
+        if (registry != null) {
+            registry.setModuleMarks(getIdKey(), marks);
+            return;
+        }
+        for (int m = 0; m < marks.length; m++) {
+            columns.setMark(m, slot, marks[m]);
+        }
     }
 
     /**
      * Displays the student details.
      */
     public void displayDetails() {
-        double mark1 = moduleMarks.getMark1();
-        double mark2 = moduleMarks.getMark2();
-        double mark3 = moduleMarks.getMark3();
-
-        double total = mark1 + mark2 + mark3;
-        double average = total / 3.0;
-        char grade = getGrade(average);
-
-        System.out.println("Student ID: " + studentID);
-        System.out.println("    Student Name: " + studentName);
-        System.out.println("    Module 1 Marks: " + mark1);
-        System.out.println("    Module 2 Marks: " + mark2);
-        System.out.println("    Module 3 Marks: " + mark3);
-        System.out.println("    Total: " + total);
-        System.out.println("    Average: " + average);
-        System.out.println("    Grade: " + grade);
+        ReportWriter writer = new ReportWriter(System.out);
+        writer.details(this);
+        writer.flush();
     }
 
     /**
@@ -102,15 +167,9 @@ class Student {
      * Displays the student details in short format.
      */
     public void displayDetailsShort() {
-        double mark1 = moduleMarks.getMark1();
-        double mark2 = moduleMarks.getMark2();
-        double mark3 = moduleMarks.getMark3();
-
-        double total = mark1 + mark2 + mark3;
-        double average = total / 3.0;
-        char grade = getGrade(average);
-
-        System.out.printf("%-10s %-20s %-10.2f %-10c%n", studentID, studentName, average, grade);
+        ReportWriter writer = new ReportWriter(System.out);
+        writer.shortDetails(this);
+        writer.flush();
     }
 
     /**
@@ -118,12 +177,7 @@ class Student {
      * @return Average marks of the student.
      */
     double getAverageMarks() {
-        double mark1 = moduleMarks.getMark1();
-        double mark2 = moduleMarks.getMark2();
-        double mark3 = moduleMarks.getMark3();
-
-        double total = mark1 + mark2 + mark3;
-        return total / 3;
+        return columns.average(slot);
     }
 
 }
@@ -0,0 +1,442 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact archive of the registry, several times smaller than student_details.txt.
+ * Students are written in ID order in blocks of up to BLOCK_ROWS, each block holding one
+ * column after another:
+ * <pre>
+ * header:  magic, version, module count, student count, rows per block (ints)
+ * block:   rows, raw length, stored length, CRC-32 of the raw bytes (ints), stored bytes
+ * raw:     IDs    first ID key, then the gap to each next key, as varints
+ *          names  number of distinct names, each as a varint UTF-8 length and the bytes,
+ *                 then the index of each student's name, as varints
+ *          marks  for each module, each student's mark as a varint of its hundredths plus
+ *                 one, or 0 and the 8 bytes of the double when the mark is not a whole
+ *                 number of hundredths from 0 to 100
+ * </pre>
+ * A block is stored deflated when that makes it smaller, so the stored length is below the
+ * raw length exactly when the block is compressed. Whole-hundredth marks decode to the same
+ * doubles, so the archive holds exactly what was registered.
+ * <p>
+ * Loading streams the file one block at a time, decoding each block straight into the
+ * registry; students sharing a name within a block share one String.
+ */
+class StudentArchive {
+    static final int MAGIC = 0x534D5341; // "SMSA"
+    static final int VERSION = 1;
+    static final int BLOCK_ROWS = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_HUNDREDTHS = 100_00;
+    private static final int MAX_KEY = 9_999_999; // wXXXXXXX IDs have seven digits
+
+    /**
+     * Writes every registered student to an archive file.
+     * The file is written under a temporary name and then moved into place, so an existing
+     * archive is never left half written. The temporary file is deleted if writing fails.
+     *
+     * @param registry the registry to save
+     * @param file the archive file
+     * @param level Deflater compression level, 0 to store the blocks uncompressed
+     * @throws IOException if the file cannot be written
+     */
+    static void write(StudentRegistry registry, Path file, int level) throws IOException {
+        StudentColumns columns = registry.copyColumns();
+        int count = columns.rows();
+        int modules = columns.moduleCount();
+
+        // Students are written in ID order so the IDs can be stored as small gaps
+        long[] order = new long[count];
+        for (int slot = 0; slot < count; slot++) {
+            order[slot] = ((long) columns.idKey(slot) << 32) | slot;
+        }
+        Arrays.sort(order);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(level);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(modules);
+                out.writeInt(count);
+                out.writeInt(BLOCK_ROWS);
+
+                BlockEncoder raw = new BlockEncoder();
+                byte[] stored = new byte[0];
+                CRC32 crc = new CRC32();
+                Map<String, Integer> dictionary = new HashMap<>();
+                int[] nameIndexes = new int[Math.min(count, BLOCK_ROWS)];
+                for (int first = 0; first < count; first += BLOCK_ROWS) {
+                    int rows = Math.min(BLOCK_ROWS, count - first);
+                    raw.reset();
+                    int previousKey = 0;
+                    for (int i = first; i < first + rows; i++) {
+                        int key = (int) (order[i] >>> 32);
+                        raw.putVarint(key - previousKey);
+                        previousKey = key;
+                    }
+
+                    // Each distinct name is written once, in order of first use
+                    dictionary.clear();
+                    String[] names = new String[rows];
+                    for (int i = 0; i < rows; i++) {
+                        String name = columns.name((int) order[first + i]);
+                        Integer index = dictionary.putIfAbsent(name, dictionary.size());
+                        nameIndexes[i] = index == null ? dictionary.size() - 1 : index;
+                        if (index == null) {
+                            names[nameIndexes[i]] = name;
+                        }
+                    }
+                    raw.putVarint(dictionary.size());
+                    for (int i = 0; i < dictionary.size(); i++) {
+                        byte[] bytes = names[i].getBytes(StandardCharsets.UTF_8);
+                        raw.putVarint(bytes.length);
+                        raw.put(bytes);
+                    }
+                    for (int i = 0; i < rows; i++) {
+                        raw.putVarint(nameIndexes[i]);
+                    }
+
+                    for (int m = 0; m < modules; m++) {
+                        for (int i = first; i < first + rows; i++) {
+                            raw.putMark(columns.mark(m, (int) order[i]));
+                        }
+                    }
+
+                    crc.reset();
+                    crc.update(raw.bytes, 0, raw.length);
+                    int storedLength = raw.length;
+                    if (level != Deflater.NO_COMPRESSION) {
+                        if (stored.length < raw.length) {
+                            stored = new byte[raw.length];
+                        }
+                        deflater.reset();
+                        deflater.setInput(raw.bytes, 0, raw.length);
+                        deflater.finish();
+                        int deflated = 0;
+                        while (!deflater.finished() && deflated < raw.length) {
+                            deflated += deflater.deflate(stored, deflated, raw.length - deflated);
+                        }
+                        if (deflater.finished() && deflated < raw.length) {
+                            storedLength = deflated;
+                        }
+                    }
+                    out.writeInt(rows);
+                    out.writeInt(raw.length);
+                    out.writeInt(storedLength);
+                    out.writeInt((int) crc.getValue());
+                    out.write(storedLength < raw.length ? stored : raw.bytes, 0, storedLength);
+                }
+                out.flush(); // Closing the channel closes the streams around it
+                channel.force(true);
+            } finally {
+                deflater.end();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads every student of an archive file into the registry, one block at a time.
+     * Students whose ID is already registered are skipped. The summary counts two stages:
+     * decode, which reads, inflates and decodes the blocks, and insert.
+     *
+     * @param file the archive file
+     * @param registry the registry to load into
+     * @return counts of loaded and skipped students
+     * @throws IOException if the file cannot be read, is not an archive, is damaged, or has
+     *                     another number of modules than the registry
+     */
+    static LoadSummary load(Path file, StudentRegistry registry) throws IOException {
+        LoadSummary summary = new LoadSummary();
+        LoadSummary.Stage decode = summary.stage("decode");
+        LoadSummary.Stage insert = summary.stage("insert");
+        long start = System.nanoTime();
+
+        Inflater inflater = new Inflater();
+        registry.beginBulkLoad();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a student archive file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive version " + version);
+            }
+            int modules = in.readInt();
+            int count = in.readInt();
+            int blockRows = in.readInt();
+            if (modules != registry.moduleCount()) {
+                throw new IOException("The archive has " + modules + " modules but the registry has "
+                        + registry.moduleCount());
+            }
+            if (count < 0 || blockRows <= 0) {
+                throw new IOException("Corrupt archive header");
+            }
+            summary.bytes = 20;
+
+            Block block = new Block(Math.min(count, blockRows), modules);
+            byte[] stored = new byte[0];
+            byte[] raw = new byte[0];
+            CRC32 crc = new CRC32();
+            double[] marks = new double[modules];
+            for (int first = 0; first < count && !summary.registryFull; first += blockRows) {
+                long decodeStart = System.nanoTime();
+                int rows = in.readInt();
+                int rawLength = in.readInt();
+                int storedLength = in.readInt();
+                int checksum = in.readInt();
+                if (rows != Math.min(blockRows, count - first) || rawLength < 0 || storedLength < 0
+                        || storedLength > rawLength) {
+                    throw new IOException("Corrupt archive block at student " + first);
+                }
+                if (raw.length < rawLength) {
+                    raw = new byte[rawLength];
+                }
+                if (storedLength < rawLength) {
+                    if (stored.length < storedLength) {
+                        stored = new byte[storedLength];
+                    }
+                    in.readFully(stored, 0, storedLength);
+                    inflater.reset();
+                    inflater.setInput(stored, 0, storedLength);
+                    try {
+                        if (inflater.inflate(raw, 0, rawLength) != rawLength || !inflater.finished()) {
+                            throw new IOException("Corrupt archive block at student " + first);
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt archive block at student " + first);
+                    }
+                } else {
+                    in.readFully(raw, 0, rawLength);
+                }
+                crc.reset();
+                crc.update(raw, 0, rawLength);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Archive block at student " + first + " does not match its checksum");
+                }
+                block.decode(raw, rawLength, rows);
+                summary.bytes += 16 + storedLength;
+                decode.rows += rows;
+                decode.nanos += System.nanoTime() - decodeStart;
+
+                long insertStart = System.nanoTime();
+                for (int i = 0; i < rows; i++) {
+                    if (registry.isFull()) {
+                        summary.registryFull = true;
+                        break;
+                    }
+                    for (int m = 0; m < modules; m++) {
+                        marks[m] = block.marks[m][i];
+                    }
+                    insert.rows++;
+                    summary.rows++;
+                    if (registry.add(block.keys[i], block.dictionary[block.nameIndexes[i]], marks)) {
+                        summary.loaded++;
+                    } else {
+                        summary.duplicates++;
+                        insert.rejected++;
+                    }
+                }
+                insert.nanos += System.nanoTime() - insertStart;
+            }
+        } catch (EOFException e) {
+            throw new IOException("The archive file is cut short");
+        } finally {
+            registry.endBulkLoad();
+            inflater.end();
+        }
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * The raw bytes of a block being written, growing as needed.
+     */
+    private static class BlockEncoder {
+        byte[] bytes = new byte[1 << 16];
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void put(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, length, data.length);
+            length += data.length;
+        }
+
+        /**
+         * Writes a non-negative int seven bits at a time, low bits first, with the top bit of
+         * each byte set when more bytes follow.
+         */
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void putMark(double mark) {
+            long hundredths = Math.round(mark * 100);
+            if (hundredths >= 0 && hundredths <= MAX_HUNDREDTHS
+                    && Double.doubleToLongBits(hundredths / 100.0) == Double.doubleToLongBits(mark)) {
+                putVarint((int) hundredths + 1);
+                return;
+            }
+            putVarint(0);
+            ensure(8);
+            long bits = Double.doubleToLongBits(mark);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+    }
+
+    /**
+     * The columns of a block being read, reused for every block.
+     */
+    private static class Block {
+        int[] keys;
+        int[] nameIndexes;
+        String[] dictionary;
+        final double[][] marks; // One column per module
+        private byte[] raw;
+        private int position;
+        private int limit;
+
+        Block(int rows, int modules) {
+            keys = new int[rows];
+            nameIndexes = new int[rows];
+            dictionary = new String[rows];
+            marks = new double[modules][rows];
+        }
+
+        /**
+         * Decodes the raw bytes of a block into the columns.
+         * @throws IOException if the bytes do not hold the given number of rows
+         */
+        void decode(byte[] raw, int length, int rows) throws IOException {
+            this.raw = raw;
+            position = 0;
+            limit = length;
+            if (keys.length < rows) {
+                keys = new int[rows];
+                nameIndexes = new int[rows];
+                dictionary = new String[rows];
+                for (int m = 0; m < marks.length; m++) {
+                    marks[m] = new double[rows];
+                }
+            }
+
+            long key = 0;
+            for (int i = 0; i < rows; i++) {
+                key += varint();
+                if (key > MAX_KEY || (i > 0 && key == keys[i - 1])) {
+                    throw corrupt();
+                }
+                keys[i] = (int) key;
+            }
+
+            int names = varint();
+            if (names > rows) {
+                throw corrupt();
+            }
+            for (int i = 0; i < names; i++) {
+                int nameLength = varint();
+                if (nameLength > limit - position) {
+                    throw corrupt();
+                }
+                dictionary[i] = new String(raw, position, nameLength, StandardCharsets.UTF_8);
+                position += nameLength;
+            }
+            for (int i = 0; i < rows; i++) {
+                nameIndexes[i] = varint();
+                if (nameIndexes[i] >= names) {
+                    throw corrupt();
+                }
+            }
+
+            for (double[] column : marks) {
+                for (int i = 0; i < rows; i++) {
+                    int hundredths = varint();
+                    if (hundredths > 0) {
+                        column[i] = (hundredths - 1) / 100.0;
+                    } else {
+                        if (limit - position < 8) {
+                            throw corrupt();
+                        }
+                        long bits = 0;
+                        for (int b = 0; b < 8; b++) {
+                            bits = (bits << 8) | (raw[position++] & 0xFF);
+                        }
+                        column[i] = Double.longBitsToDouble(bits);
+                    }
+                }
+            }
+            if (position != limit) {
+                throw corrupt();
+            }
+        }
+
+        private int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position == limit) {
+                    throw corrupt();
+                }
+                byte b = raw[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    if (value < 0) {
+                        throw corrupt();
+                    }
+                    return value;
+                }
+            }
+            throw corrupt();
+        }
+
+        private static IOException corrupt() {
+            return new IOException("Corrupt archive block");
+        }
+    }
+}
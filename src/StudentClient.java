@@ -0,0 +1,159 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Client for StudentServer on the same machine.
+ * It either forwards commands from standard input and prints the responses, or runs a load
+ * test with many concurrent connections, each pipelining its requests.
+ */
+class StudentClient {
+    private static final int WINDOW = 64; // Requests sent before reading their responses
+
+    /**
+     * Sends every line of the input to the server and prints the responses.
+     * The requests are pipelined: a separate thread sends them while the responses are read.
+     *
+     * @param port the server port
+     * @param input the commands
+     * @param output where the responses are printed
+     * @throws IOException if the server cannot be reached
+     */
+    static void forward(int port, BufferedReader input, PrintStream output) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 14)) {
+            Thread sender = new Thread(() -> {
+                try {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 14);
+                    String line;
+                    while ((line = input.readLine()) != null) {
+                        if (!line.isBlank()) {
+                            out.write(line);
+                            out.write('\n');
+                        }
+                        if (!input.ready()) {
+                            out.flush();
+                        }
+                    }
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    output.println("Error sending request. " + e.getMessage());
+                }
+            });
+            sender.setDaemon(true);
+            sender.start();
+            String line;
+            while ((line = in.readLine()) != null) {
+                // Output lines lose the '.' the server put in front; trailers print as OK or ERR
+                output.println(line.startsWith(".") ? line.substring(1) : line);
+            }
+        }
+    }
+
+    /**
+     * Runs a load test. Every client registers its own students, sets their marks and finds
+     * them, in pipelined windows of WINDOW requests.
+     *
+     * @param port the server port
+     * @param clients number of concurrent connections
+     * @param requests requests per connection
+     * @param modules number of modules the server expects marks for
+     * @throws IOException if a connection fails
+     */
+    static void loadTest(int port, int clients, int requests, int modules) throws IOException {
+        ExecutorService threads = StudentServer.newThreadPerTaskExecutor();
+        long start = System.nanoTime();
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            results.add(threads.submit(() -> runClient(port, client, requests, modules)));
+        }
+        long answered = 0;
+        long errors = 0;
+        try {
+            for (Future<long[]> result : results) {
+                long[] counts = result.get();
+                answered += counts[0];
+                errors += counts[1];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Client failed: " + e.getCause(), e.getCause());
+        } finally {
+            threads.shutdownNow();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%d clients, %d requests (%d errors) in %.3f s (%d requests/s)%n",
+                clients, answered, errors, nanos / 1e9, nanos == 0 ? 0 : answered * 1_000_000_000L / nanos);
+    }
+
+    /**
+     * Runs the requests of one load test client.
+     * @return the number of responses and of error responses
+     */
+    private static long[] runClient(int port, int client, int requests, int modules) throws IOException {
+        long errors = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 14)) {
+            socket.setTcpNoDelay(true);
+            int sent = 0;
+            while (sent < requests) {
+                int window = Math.min(WINDOW, requests - sent);
+                for (int i = 0; i < window; i++) {
+                    out.write(request(client, requests, modules, sent + i));
+                    out.write('\n');
+                }
+                out.flush();
+                for (int i = 0; i < window; i++) {
+                    String line;
+                    while ((line = in.readLine()) != null && (!line.startsWith(".") || line.startsWith(".."))) {
+                        // Skip the output of FIND
+                    }
+                    if (line == null) {
+                        throw new IOException("Server closed the connection");
+                    }
+                    if (!line.equals(".OK")) {
+                        errors++;
+                    }
+                }
+                sent += window;
+            }
+        }
+        return new long[] {requests, errors};
+    }
+
+    /**
+     * Builds request number n of a client: REG, MARKS and FIND in turn for each of its students.
+     */
+    private static String request(int client, int requests, int modules, int n) {
+        String id = IdIndex.idOf((int) (((long) client * requests + n / 3) % 10_000_000));
+        switch (n % 3) {
+            case 0:
+                return "REG " + id + " Load Test " + client;
+            case 1:
+                StringBuilder marks = new StringBuilder("MARKS ").append(id);
+                for (int m = 0; m < modules; m++) {
+                    marks.append(' ').append((long) n * (6 * m + 1) % 101);
+                }
+                return marks.toString();
+            default:
+                return "FIND " + id;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Columnar storage for student records.
+ * Each field is kept in its own column indexed by slot, with one column per module,
+ * so scans over a single module read contiguous memory.
+ * Student and Module objects are views over a slot of this storage.
+ * The columns live in arrays on the Java heap, in direct buffers outside it or in files; see Storage.
+ */
+abstract class StudentColumns {
+    /**
+     * Where the columns are kept.
+     */
+    enum Storage {
+        HEAP,   // Primitive arrays and a String per name, see HeapStudentColumns
+        OFFHEAP, // Direct buffers and a name arena, see OffHeapStudentColumns
+        DISK     // Files with a cache of rows, see DiskStudentColumns
+    }
+
+    static final int DEFAULT_MODULES = 3; // Module count of files written before it was configurable
+
+    private final int modules;
+
+    /**
+     * Constructor for the storage of a number of modules.
+     * @param modules number of modules each student has marks for.
+     */
+    StudentColumns(int modules) {
+        if (modules <= 0) {
+            throw new IllegalArgumentException("Module count must be positive: " + modules);
+        }
+        this.modules = modules;
+    }
+
+    /**
+     * Creates empty storage.
+     * @param rows number of rows to allocate.
+     * @param modules number of modules each student has marks for.
+     * @param storage where the columns are kept.
+     * @return the storage.
+     */
+    static StudentColumns create(int rows, int modules, Storage storage) {
+        switch (storage) {
+            case OFFHEAP:
+                return new OffHeapStudentColumns(rows, modules);
+            case DISK:
+                return new DiskStudentColumns(rows, modules);
+            default:
+                return new HeapStudentColumns(rows, modules);
+        }
+    }
+
+    /**
+     * Getter for the number of modules.
+     * @return number of marks per student.
+     */
+    public int moduleCount() {
+        return modules;
+    }
+
+    /**
+     * Getter for the number of allocated rows.
+     * @return number of rows.
+     */
+    public abstract int rows();
+
+    /**
+     * Grows every column to at least the given number of rows.
+     * @param rows number of rows needed.
+     */
+    public abstract void ensureRows(int rows);
+
+    /**
+     * Getter for the ID key stored in a slot.
+     * @param slot the slot to read.
+     * @return the int key of the student ID.
+     */
+    public abstract int idKey(int slot);
+
+    /**
+     * Getter for the name stored in a slot.
+     * @param slot the slot to read.
+     * @return the student name.
+     */
+    public abstract String name(int slot);
+
+    /**
+     * Setter for the name stored in a slot.
+     * @param slot the slot to write.
+     * @param name the student name.
+     */
+    public abstract void setName(int slot, String name);
+
+    /**
+     * Getter for the case-folded name stored in a slot.
+     * Comparing two of these with compareTo orders names like compareToIgnoreCase.
+     * @param slot the slot to read.
+     * @return the case-folded name.
+     */
+    public abstract String nameKey(int slot);
+
+    /**
+     * Compares the case-folded names of two slots, like nameKey(slot1).compareTo(nameKey(slot2)).
+     * @param slot1 the first slot.
+     * @param slot2 the second slot.
+     * @return a negative number, zero or a positive number as the first name sorts before,
+     *         with or after the second.
+     */
+    public int compareNameKeys(int slot1, int slot2) {
+        return nameKey(slot1).compareTo(nameKey(slot2));
+    }
+
+    /**
+     * Packs the first four characters of the case-folded name of a slot into a sort prefix,
+     * the same as namePrefix(nameKey(slot), (char) 0).
+     * @param slot the slot to read.
+     * @return the prefix.
+     */
+    public long nameKeyPrefix(int slot) {
+        return namePrefix(nameKey(slot), (char) 0);
+    }
+
+    /**
+     * Packs the first four characters of a case-folded name into a sort prefix.
+     * Unsigned comparison of prefixes orders names like compareTo on their first four characters.
+     * @param nameKey the case-folded name.
+     * @param fill the character used for positions past the end of the name.
+     * @return the prefix.
+     */
+    static long namePrefix(String nameKey, char fill) {
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            prefix = (prefix << 16) | (i < nameKey.length() ? nameKey.charAt(i) : fill);
+        }
+        return prefix;
+    }
+
+    /**
+     * Folds a name the same way compareToIgnoreCase does, so it only has to be done once.
+     * @param name the name to fold.
+     * @return the case-folded name.
+     */
+    static String collationKey(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(name.length());
+        name.codePoints().forEach(c -> key.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+        String folded = key.toString();
+        return folded.equals(name) ? name : folded; // Share the name when it is already folded
+    }
+
+    /**
+     * Getter for one mark.
+     * @param module module number starting at 0.
+     * @param slot the slot to read.
+     * @return the mark.
+     */
+    public abstract double mark(int module, int slot);
+
+    /**
+     * Setter for one mark.
+     * @param module module number starting at 0.
+     * @param slot the slot to write.
+     * @param mark the mark.
+     */
+    public abstract void setMark(int module, int slot, double mark);
+
+    /**
+     * Copies consecutive marks of one module into an array, for sequential scans.
+     * @param module module number starting at 0.
+     * @param from the first slot to read.
+     * @param count number of slots to read.
+     * @param into receives the marks from index 0.
+     */
+    public abstract void readMarks(int module, int from, int count, double[] into);
+
+    /**
+     * Calculates the average mark of a slot across all modules.
+     * @param slot the slot to read.
+     * @return total marks divided by the number of modules.
+     */
+    public double average(int slot) {
+        return total(slot) / modules;
+    }
+
+    /**
+     * Sums the marks of a slot across all modules.
+     * @param slot the slot to read.
+     * @return total marks.
+     */
+    public double total(int slot) {
+        double total = 0;
+        for (int m = 0; m < modules; m++) {
+            total += mark(m, slot);
+        }
+        return total;
+    }
+
+    /**
+     * Writes a full row, with every mark 0.
+     * @param slot the slot to write.
+     * @param idKey the int key of the student ID.
+     * @param name the student name.
+     */
+    public abstract void set(int slot, int idKey, String name);
+
+    /**
+     * Copies a full row from another storage, or from another slot of this one.
+     * @param slot the slot to write.
+     * @param source the storage to copy from, with the same number of modules.
+     * @param sourceSlot the slot to copy from.
+     */
+    public void copyFrom(int slot, StudentColumns source, int sourceSlot) {
+        set(slot, source.idKey(sourceSlot), source.name(sourceSlot));
+        for (int m = 0; m < modules; m++) {
+            setMark(m, slot, source.mark(m, sourceSlot));
+        }
+    }
+
+    /**
+     * Copies the first rows into new storage of the same kind, for example to save them while
+     * this one keeps changing.
+     * @param count number of rows to copy.
+     * @return the copy.
+     */
+    public abstract StudentColumns copy(int count);
+
+    /**
+     * Clears a row so it no longer holds references.
+     * @param slot the slot to clear.
+     */
+    public abstract void clear(int slot);
+}
@@ -0,0 +1,210 @@
+/**
+ * Interprets the text commands shared by batch mode and the server, one command per line:
+ * <pre>
+ * REG w1234567 Alice Smith      register a student
+ * NAME w1234567 Alice Jones     change a name
+ * MARKS w1234567 55 61 70       set the marks of every module
+ * DEL w1234567                  delete a student
+ * FIND w1234567                 show a student and their rank
+ * SEARCH prefix|contains Ali    list the students whose name starts with or contains the text
+ * REPORT summary|complete|names print a report
+ * REPORT analytics [K]          print percentiles, a marks histogram and the top and bottom K students
+ * </pre>
+ * Commands are case-insensitive. Only the registry is used, so one instance can serve many
+ * threads at once. Every command is timed in Metrics.
+ */
+class StudentCommands {
+    private static final int DEFAULT_TOP_COUNT = 10; // Top and bottom students in REPORT analytics
+
+    private final StudentRegistry registry;
+    private final boolean bulkRegistrations;
+
+    /**
+     * Constructor for the StudentCommands class.
+     * @param registry the registry the commands act on.
+     * @param bulkRegistrations true to index runs of registrations in one pass, which suits a
+     *                          single writer; false when other threads query the registry.
+     */
+    StudentCommands(StudentRegistry registry, boolean bulkRegistrations) {
+        this.registry = registry;
+        this.bulkRegistrations = bulkRegistrations;
+    }
+
+    /**
+     * Runs one command.
+     * @param line the command line, trimmed and not empty.
+     * @param out where FIND and REPORT write their output.
+     * @return an error message, or null if the command succeeded.
+     */
+    String execute(String line, ReportWriter out) {
+        long start = System.nanoTime();
+        String[] words = line.split("\\s+", 3);
+        String command = words[0].toUpperCase();
+        try {
+            return run(words, command, out);
+        } catch (IllegalArgumentException e) {
+            // The student was deleted by another client between the check and the change
+            return "Student not found";
+        } finally {
+            Metrics.record(operationOf(command, words.length > 1 ? words[1] : ""), start);
+        }
+    }
+
+    /**
+     * Finds the operation a command is timed as.
+     * @return the operation, or null for an unknown command.
+     */
+    private static Metrics.Operation operationOf(String command, String argument) {
+        switch (command) {
+            case "REG":
+                return Metrics.Operation.REGISTER;
+            case "NAME":
+                return Metrics.Operation.RENAME;
+            case "MARKS":
+                return Metrics.Operation.MARKS;
+            case "DEL":
+                return Metrics.Operation.DELETE;
+            case "FIND":
+                return Metrics.Operation.FIND;
+            case "SEARCH":
+                return Metrics.Operation.SEARCH;
+            case "REPORT":
+                if (argument.equalsIgnoreCase("summary")) {
+                    return Metrics.Operation.SUMMARY_REPORT;
+                } else if (argument.equalsIgnoreCase("complete")) {
+                    return Metrics.Operation.COMPLETE_REPORT;
+                } else if (argument.equalsIgnoreCase("names")) {
+                    return Metrics.Operation.VIEW_BY_NAME;
+                } else if (argument.equalsIgnoreCase("analytics")) {
+                    return Metrics.Operation.ANALYTICS_REPORT;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private String run(String[] words, String command, ReportWriter out) {
+        String id = words.length > 1 ? words[1] : "";
+        String rest = words.length > 2 ? words[2] : "";
+        int key = IdIndex.keyOf(id);
+
+        switch (command) {
+            case "REG":
+                if (key < 0) {
+                    return "Invalid ID format: " + id;
+                }
+                if (rest.isEmpty()) {
+                    return "Missing student name";
+                }
+                if (registry.isFull()) {
+                    return "No available seats";
+                }
+                if (bulkRegistrations) {
+                    registry.beginBulkLoad(); // Runs of registrations are indexed in one pass
+                }
+                if (!registry.add(key, rest, new double[registry.moduleCount()])) {
+                    return "Student ID already exists: " + id;
+                }
+                return null;
+
+            case "NAME":
+                if (key < 0 || !registry.contains(id)) {
+                    return "Student not found: " + id;
+                }
+                if (rest.isEmpty()) {
+                    return "Missing student name";
+                }
+                registry.setStudentName(key, rest);
+                return null;
+
+            case "MARKS":
+                if (key < 0 || !registry.contains(id)) {
+                    return "Student not found: " + id;
+                }
+                String[] values = rest.split("\\s+");
+                if (values.length != registry.moduleCount()) {
+                    return "Expected " + registry.moduleCount() + " marks";
+                }
+                double[] marks = new double[values.length];
+                for (int m = 0; m < values.length; m++) {
+                    try {
+                        marks[m] = Double.parseDouble(values[m]);
+                    } catch (NumberFormatException e) {
+                        return "Invalid mark: " + values[m];
+                    }
+                    if (!(marks[m] >= 0 && marks[m] <= 100)) {
+                        return "Marks must be between 0 and 100: " + values[m];
+                    }
+                }
+                registry.setModuleMarks(key, marks);
+                return null;
+
+            case "DEL":
+                if (registry.remove(id) == null) {
+                    return "Student not found: " + id;
+                }
+                return null;
+
+            case "FIND":
+                Student student = registry.copyOf(id);
+                if (student == null) {
+                    return "Student not found: " + id;
+                }
+                out.details(student).text("    Rank: ").text(Integer.toString(registry.rankOf(id)))
+                        .text(" of ").text(Integer.toString(registry.size())).newline();
+                return null;
+
+            case "SEARCH":
+                if (rest.isEmpty()) {
+                    return "Missing search text";
+                }
+                switch (id.toLowerCase()) {
+                    case "prefix":
+                        out.paged((from, count, action) -> registry.forEachNameStartingWith(rest, from, count, action),
+                                ReportWriter.PAGE_ROWS, out::shortDetails);
+                        return null;
+                    case "contains":
+                        // Every page would search and sort the matches again, so they are read in one page
+                        out.paged((from, count, action) -> registry.forEachNameContaining(rest, from, count, action),
+                                Integer.MAX_VALUE, out::shortDetails);
+                        return null;
+                    default:
+                        return "Unknown search: " + id + " (expected prefix or contains)";
+                }
+
+            case "REPORT":
+                switch (id.toLowerCase()) {
+                    case "summary":
+                        assert registry.verifyAggregates();
+                        out.summaryReport(registry.aggregates());
+                        return null;
+                    case "complete":
+                        out.completeReport(registry);
+                        return null;
+                    case "names":
+                        out.paged(registry::forEachByName, ReportWriter.PAGE_ROWS, out::shortDetails);
+                        return null;
+                    case "analytics":
+                        int count = DEFAULT_TOP_COUNT;
+                        if (!rest.isEmpty()) {
+                            try {
+                                count = Integer.parseInt(rest);
+                            } catch (NumberFormatException e) {
+                                count = -1;
+                            }
+                            if (count <= 0) {
+                                return "Invalid number of students: " + rest;
+                            }
+                        }
+                        out.analyticsReport(registry.aggregates(), registry, count);
+                        return null;
+                    default:
+                        return "Unknown report: " + id + " (expected summary, complete, names or analytics)";
+                }
+
+            default:
+                return "Unknown command: " + words[0];
+        }
+    }
+}
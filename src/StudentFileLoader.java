@@ -0,0 +1,457 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams student details from a file into the registry through a pipeline of stages.
+ * Each stage runs on its own thread and hands batches of lines to the next through a
+ * bounded queue:
+ * <ol>
+ * <li>read cuts the file into batches of whole lines,</li>
+ * <li>parse finds the fields of each line,</li>
+ * <li>validate decodes the ID and the marks,</li>
+ * <li>dedup drops IDs that are already registered or appeared earlier in the file,</li>
+ * <li>insert adds the remaining students to the registry on the calling thread, in file
+ *     order, and writes the rejected lines to the rejects file.</li>
+ * </ol>
+ * A fixed number of batches is recycled through the stages, so a stage that falls behind holds
+ * back the stages before it and memory use does not depend on the size of the file.
+ * Every stage counts its lines, rejects and busy time in the summary.
+ */
+class StudentFileLoader {
+    private static final int BATCH_SIZE = 1 << 20; // 1 MB of lines per batch
+    private static final int BATCHES = 8;          // Batches in flight between the stages
+    private static final int ID_KEYS = 10_000_000; // Keys of wXXXXXXX IDs are seven digits
+
+    private final FileChannel channel;
+    private final StudentRegistry registry;
+    private final int modules;
+    private final LoadSummary summary;
+    private final BlockingQueue<Batch> free = new ArrayBlockingQueue<>(BATCHES);
+    private volatile boolean stopped; // Set by insert when the rest of the file is not needed
+
+    private StudentFileLoader(FileChannel channel, StudentRegistry registry, LoadSummary summary) {
+        this.channel = channel;
+        this.registry = registry;
+        this.modules = registry.moduleCount();
+        this.summary = summary;
+    }
+
+    /**
+     * Loads every line of a file into the registry without keeping the rejected lines.
+     *
+     * @param file the file to read
+     * @param registry the registry to load into
+     * @return counts of loaded and rejected lines
+     * @throws IOException if the file cannot be read, or has another number of modules than the registry
+     */
+    static LoadSummary load(Path file, StudentRegistry registry) throws IOException {
+        return load(file, registry, null);
+    }
+
+    /**
+     * Loads every line of a file into the registry.
+     * Lines with an ID that is already registered are skipped, so the first occurrence wins.
+     * Loading stops when the registry is full.
+     *
+     * @param file the file to read
+     * @param registry the registry to load into
+     * @param rejectsFile where to write the rejected lines, or null to only count them
+     * @return counts of loaded and rejected lines
+     * @throws IOException if the file cannot be read, has another number of modules than the
+     *                     registry, or the rejects file cannot be written
+     */
+    static LoadSummary load(Path file, StudentRegistry registry, Path rejectsFile) throws IOException {
+        LoadSummary summary = new LoadSummary();
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             RejectsWriter rejects = new RejectsWriter(rejectsFile)) {
+            int header = StudentRowParser.headerLength(channel, registry.moduleCount());
+            new StudentFileLoader(channel, registry, summary).run(header, rejects);
+            summary.rejectsFile = rejects.file();
+        }
+
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Starts the stages and runs the insert stage until the last batch has passed through.
+     */
+    private void run(int header, RejectsWriter rejects) throws IOException {
+        BlockingQueue<Batch> read = new ArrayBlockingQueue<>(BATCHES);
+        BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(BATCHES);
+        BlockingQueue<Batch> validated = new ArrayBlockingQueue<>(BATCHES);
+        BlockingQueue<Batch> unique = new ArrayBlockingQueue<>(BATCHES);
+        for (int i = 0; i < BATCHES; i++) {
+            free.add(new Batch(modules));
+        }
+        Thread[] threads = {
+                new Thread(new ReadStage(header, read), "import-read"),
+                new Thread(new ParseStage(read, parsed), "import-parse"),
+                new Thread(new ValidateStage(parsed, validated), "import-validate"),
+                new Thread(new DedupStage(validated, unique), "import-dedup")};
+        LoadSummary.Stage stats = summary.stage("insert");
+
+        Exception error = null;
+        registry.beginBulkLoad();
+        try {
+            for (Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+            boolean end = false;
+            while (!end) {
+                Batch batch = unique.take();
+                if (error == null && batch.error != null) {
+                    error = batch.error;
+                    stopped = true;
+                }
+                if (error == null && !summary.registryFull) {
+                    long start = System.nanoTime();
+                    try {
+                        insert(batch, rejects, stats);
+                    } catch (IOException | RuntimeException e) {
+                        error = e; // Thrown once the other stages have finished
+                        stopped = true;
+                    }
+                    stats.nanos += System.nanoTime() - start;
+                }
+                end = batch.end;
+                free.put(batch);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            stopped = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loading was interrupted");
+        } finally {
+            registry.endBulkLoad();
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Adds the valid lines of a batch to the registry and writes the rejected ones, in file order.
+     */
+    private void insert(Batch batch, RejectsWriter rejects, LoadSummary.Stage stats) throws IOException {
+        for (int line = 0; line < batch.lines; line++) {
+            if (registry.isFull()) {
+                summary.registryFull = true;
+                stopped = true;
+                return;
+            }
+            stats.rows++;
+            int status = batch.statuses[line];
+            if (status == StudentRowParser.OK) {
+                System.arraycopy(batch.marks, line * modules, batch.rowMarks, 0, modules);
+                if (registry.add(batch.keys[line], batch.names[line], batch.rowMarks)) {
+                    summary.loaded++;
+                } else {
+                    // Registered by another thread after the dedup stage looked
+                    status = StudentRowParser.DUPLICATE;
+                    stats.rejected++;
+                }
+                batch.names[line] = null;
+            }
+            summary.count(status);
+            if (status != StudentRowParser.OK) {
+                rejects.write(batch.firstLine + line, status, batch.bytes, batch.lineStarts[line], batch.lineEnds[line]);
+            }
+        }
+    }
+
+    /**
+     * A block of whole lines with what each stage found out about them, indexed by line.
+     * The same batches are reused for the whole file.
+     */
+    private static final class Batch {
+        final int fields;
+        final int modules;
+        byte[] bytes = new byte[BATCH_SIZE];
+        int length;        // Bytes of the batch in use
+        long firstLine;    // Number of the first line in the file, from 1
+        int lines;
+        int[] lineStarts;
+        int[] lineEnds;    // Index after the last byte of each line, excluding the line feed
+        int[] statuses;    // StudentRowParser status of each line
+        int[] fieldStarts; // fields entries per line
+        int[] fieldEnds;
+        int[] keys;
+        String[] names;
+        double[] marks;    // modules entries per line
+        final double[] rowMarks;
+        boolean end;       // The last batch, holding no lines
+        Exception error;   // Why the load failed, passed on to the insert stage
+
+        Batch(int modules) {
+            this.fields = 2 + modules;
+            this.modules = modules;
+            rowMarks = new double[modules];
+            allocateLines(1 << 14);
+        }
+
+        void clear() {
+            length = 0;
+            lines = 0;
+            end = false;
+        }
+
+        void addLine(int start, int end) {
+            if (lines == lineStarts.length) {
+                allocateLines(lines * 2);
+            }
+            lineStarts[lines] = start;
+            lineEnds[lines] = end;
+            lines++;
+        }
+
+        private void allocateLines(int capacity) {
+            lineStarts = lineStarts == null ? new int[capacity] : Arrays.copyOf(lineStarts, capacity);
+            lineEnds = lineEnds == null ? new int[capacity] : Arrays.copyOf(lineEnds, capacity);
+            statuses = new int[capacity];
+            fieldStarts = new int[capacity * fields];
+            fieldEnds = new int[capacity * fields];
+            keys = new int[capacity];
+            names = new String[capacity];
+            marks = new double[capacity * modules];
+        }
+    }
+
+    /**
+     * A stage that takes batches from one queue, works on them and passes them to the next.
+     * Batches that failed earlier, and the last batch, are passed on untouched.
+     */
+    private abstract static class Stage implements Runnable {
+        private final BlockingQueue<Batch> in;
+        private final BlockingQueue<Batch> out;
+        final LoadSummary.Stage stats;
+
+        Stage(LoadSummary.Stage stats, BlockingQueue<Batch> in, BlockingQueue<Batch> out) {
+            this.stats = stats;
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean end = false;
+                while (!end) {
+                    Batch batch = in.take();
+                    end = batch.end;
+                    if (!end && batch.error == null) {
+                        long start = System.nanoTime();
+                        try {
+                            process(batch);
+                        } catch (RuntimeException e) {
+                            batch.error = e;
+                        }
+                        stats.nanos += System.nanoTime() - start;
+                    }
+                    out.put(batch);
+                }
+            } catch (InterruptedException e) {
+                // The load was abandoned
+            }
+        }
+
+        abstract void process(Batch batch);
+    }
+
+    /**
+     * Fills batches with whole lines from the file. The unfinished line at the end of one
+     * batch is carried over to the next.
+     */
+    private final class ReadStage implements Runnable {
+        private final BlockingQueue<Batch> out;
+        private final LoadSummary.Stage stats = summary.stage("read");
+        private long position;
+        private long nextLine;
+        private byte[] carry = new byte[0];
+        private int carried;
+
+        ReadStage(int header, BlockingQueue<Batch> out) {
+            this.out = out;
+            this.position = header;
+            this.nextLine = header > 0 ? 2 : 1;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean endOfFile = false;
+                while (!endOfFile && !stopped) {
+                    Batch batch = free.take();
+                    long start = System.nanoTime();
+                    batch.clear();
+                    try {
+                        endOfFile = fill(batch);
+                    } catch (IOException e) {
+                        batch.error = e;
+                        endOfFile = true;
+                    }
+                    stats.nanos += System.nanoTime() - start;
+                    out.put(batch);
+                }
+                Batch last = free.take();
+                last.clear();
+                last.end = true;
+                out.put(last);
+            } catch (InterruptedException e) {
+                // The load was abandoned
+            }
+        }
+
+        /**
+         * Reads into a batch until it is full or the file ends, then splits it into lines.
+         * @return true at the end of the file
+         */
+        private boolean fill(Batch batch) throws IOException {
+            if (carried >= batch.bytes.length) {
+                // One line fills a whole batch
+                batch.bytes = new byte[carried * 2];
+            }
+            System.arraycopy(carry, 0, batch.bytes, 0, carried);
+            ByteBuffer buffer = ByteBuffer.wrap(batch.bytes);
+            buffer.position(carried);
+            boolean endOfFile = false;
+            while (buffer.hasRemaining() && !endOfFile) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    endOfFile = true;
+                } else {
+                    position += read;
+                    summary.bytes += read;
+                }
+            }
+            batch.length = buffer.position();
+
+            byte[] bytes = batch.bytes;
+            int lineStart = 0;
+            for (int i = 0; i < batch.length; i++) {
+                if (bytes[i] == '\n') {
+                    batch.addLine(lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (endOfFile && lineStart < batch.length) {
+                // Last line without a line terminator
+                batch.addLine(lineStart, batch.length);
+                lineStart = batch.length;
+            }
+            carried = batch.length - lineStart;
+            if (carry.length < carried) {
+                carry = new byte[Math.max(carried, carry.length * 2)];
+            }
+            System.arraycopy(bytes, lineStart, carry, 0, carried);
+
+            batch.firstLine = nextLine;
+            nextLine += batch.lines;
+            stats.rows += batch.lines;
+            return endOfFile;
+        }
+    }
+
+    /**
+     * Finds the fields of every line, rejecting lines without exactly one per column.
+     */
+    private final class ParseStage extends Stage {
+        private final StudentRowParser parser = new StudentRowParser(modules);
+
+        ParseStage(BlockingQueue<Batch> in, BlockingQueue<Batch> out) {
+            super(summary.stage("parse"), in, out);
+        }
+
+        @Override
+        void process(Batch batch) {
+            int fields = parser.fieldCount();
+            for (int line = 0; line < batch.lines; line++) {
+                int status = parser.split(batch.bytes, batch.lineStarts[line], batch.lineEnds[line],
+                        batch.fieldStarts, batch.fieldEnds, line * fields);
+                batch.statuses[line] = status;
+                if (status != StudentRowParser.OK) {
+                    stats.rejected++;
+                }
+            }
+            stats.rows += batch.lines;
+        }
+    }
+
+    /**
+     * Decodes the ID, name and marks of every line that parsed.
+     */
+    private final class ValidateStage extends Stage {
+        private final StudentRowParser parser = new StudentRowParser(modules);
+
+        ValidateStage(BlockingQueue<Batch> in, BlockingQueue<Batch> out) {
+            super(summary.stage("validate"), in, out);
+        }
+
+        @Override
+        void process(Batch batch) {
+            int fields = parser.fieldCount();
+            for (int line = 0; line < batch.lines; line++) {
+                if (batch.statuses[line] != StudentRowParser.OK) {
+                    continue;
+                }
+                stats.rows++;
+                int status = parser.decode(batch.bytes, batch.fieldStarts, batch.fieldEnds, line * fields);
+                batch.statuses[line] = status;
+                if (status == StudentRowParser.OK) {
+                    batch.keys[line] = parser.idKey;
+                    batch.names[line] = parser.name;
+                    System.arraycopy(parser.marks, 0, batch.marks, line * modules, modules);
+                } else {
+                    stats.rejected++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rejects lines whose ID is already registered or appeared on an earlier line.
+     */
+    private final class DedupStage extends Stage {
+        private final BitSet seen = new BitSet(ID_KEYS);
+
+        DedupStage(BlockingQueue<Batch> in, BlockingQueue<Batch> out) {
+            super(summary.stage("dedup"), in, out);
+        }
+
+        @Override
+        void process(Batch batch) {
+            for (int line = 0; line < batch.lines; line++) {
+                if (batch.statuses[line] != StudentRowParser.OK) {
+                    continue;
+                }
+                stats.rows++;
+                int key = batch.keys[line];
+                if (seen.get(key) || registry.contains(key)) {
+                    batch.statuses[line] = StudentRowParser.DUPLICATE;
+                    batch.names[line] = null;
+                    stats.rejected++;
+                } else {
+                    seen.set(key);
+                }
+            }
+        }
+    }
+}
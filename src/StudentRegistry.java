@@ -0,0 +1,851 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Growable store of registered students.
+ * Students are kept densely packed in slots 0..size-1 of columnar storage and looked up through an ID index.
+ * Deleting moves the last student into the freed slot, so every operation is O(1).
+ * A rank index orders the students by average marks and a name index orders them by name,
+ * and both are kept up to date on every change. Names can be searched by prefix through the
+ * name index, and by substring through a gram index that is built by the first such search
+ * and kept up to date from then on.
+ * <p>
+ * The registry is safe to share between threads. Every change takes the write side of a
+ * StampedLock; it is held only for the O(log n) index updates of that one change, because
+ * the ordered indexes and the cohort totals are shared by all students. ID lookups run
+ * without locking on an optimistic stamp and only fall back to the read lock if a writer
+ * got in the way. Student views returned by find, get and the forEach methods point at a
+ * slot and are only stable while no other thread deletes; threads that share the registry
+ * use copyOf, which returns a detached copy.
+ */
+class StudentRegistry {
+    /**
+     * Receives every change made to the registry, after it has been applied.
+     * The columns and slot passed in are only valid during the call.
+     */
+    interface Listener {
+        void added(int key, StudentColumns columns, int slot);
+
+        void removed(int key);
+
+        void renamed(int key, String name);
+
+        void marksChanged(int key, StudentColumns columns, int slot);
+    }
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final int capacity;
+    private final StudentColumns columns;
+    private int size = 0;
+    private final IdIndex idIndex;
+    private final OrderedIdTree rankIndex = new OrderedIdTree(new AverageOrder()); // Average desc, then ID
+    private final OrderedIdTree nameIndex = new OrderedIdTree(new NameOrder()); // Name ignoring case, then ID
+    private NameGramIndex gramIndex; // Null until the first substring search, and again after a bulk load
+    private int unindexedFrom = -1; // First slot added during a bulk load that is not in the ordered indexes yet
+    private Listener[] listeners = new Listener[0];
+    private final CohortAggregates aggregates; // Pass counts, sums and grades, without a bulk load's students
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Constructor to create an empty registry of students with DEFAULT_MODULES modules.
+     * @param capacity maximum number of students that can be registered.
+     */
+    public StudentRegistry(int capacity) {
+        this(capacity, StudentColumns.DEFAULT_MODULES);
+    }
+
+    /**
+     * Constructor to create an empty registry that keeps its students on the heap.
+     * @param capacity maximum number of students that can be registered.
+     * @param modules number of modules every student has marks for.
+     */
+    public StudentRegistry(int capacity, int modules) {
+        this(capacity, modules, StudentColumns.Storage.HEAP);
+    }
+
+    /**
+     * Constructor to create an empty registry.
+     * @param capacity maximum number of students that can be registered.
+     * @param modules number of modules every student has marks for.
+     * @param storage where the student records are kept.
+     */
+    public StudentRegistry(int capacity, int modules, StudentColumns.Storage storage) {
+        this(capacity, StudentColumns.create(Math.min(Math.max(capacity, 0), INITIAL_SLOTS), modules, storage));
+    }
+
+    /**
+     * Constructor to create an empty registry in storage set up by the caller.
+     * @param capacity maximum number of students that can be registered.
+     * @param columns empty storage, which the registry takes over.
+     */
+    StudentRegistry(int capacity, StudentColumns columns) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.columns = columns;
+        columns.ensureRows(Math.min(capacity, INITIAL_SLOTS));
+        this.idIndex = new IdIndex(columns.rows());
+        this.aggregates = new CohortAggregates(columns.moduleCount());
+    }
+
+    /**
+     * Getter for the configured capacity.
+     * @return maximum number of students.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter for the number of modules.
+     * @return number of marks every student has.
+     */
+    public int moduleCount() {
+        return columns.moduleCount();
+    }
+
+    /**
+     * Getter for the number of registered students.
+     * @return number of students.
+     */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int current = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Calculates how many more students can be registered.
+     * @return number of available seats.
+     */
+    public int availableSeats() {
+        return capacity - size();
+    }
+
+    /**
+     * Checks if the registry has reached its capacity.
+     * @return true if no more students can be registered.
+     */
+    public boolean isFull() {
+        return size() >= capacity;
+    }
+
+    /**
+     * Gets the student stored in a slot.
+     * Slots are only stable until the next deletion.
+     * @param slot slot between 0 and size - 1.
+     * @return a view of the student in that slot.
+     */
+    public Student get(int slot) {
+        int current = size();
+        if (slot < 0 || slot >= current) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of range for size " + current);
+        }
+        return new Student(this, slot);
+    }
+
+    /**
+     * Gives direct access to the storage for sequential scans over slots 0..size-1.
+     * Only safe while no other thread changes the registry; see copyColumns.
+     * @return the columnar storage.
+     */
+    StudentColumns columns() {
+        return columns;
+    }
+
+    /**
+     * Copies the storage of every registered student at one point in time.
+     * @return a copy with exactly size() rows.
+     */
+    StudentColumns copyColumns() {
+        long stamp = lock.readLock();
+        try {
+            return columns.copy(size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Checks if a student with the given ID is registered.
+     * @param id the ID to check.
+     * @return true if the ID is taken.
+     */
+    public boolean contains(String id) {
+        int key = IdIndex.keyOf(id);
+        return key >= 0 && slotOrMissing(key) >= 0;
+    }
+
+    /**
+     * Checks if a student with the given ID key is registered.
+     * @param key the int key of the student ID.
+     * @return true if the ID is taken.
+     */
+    boolean contains(int key) {
+        return slotOrMissing(key) >= 0;
+    }
+
+    /**
+     * Finds a student by ID.
+     * @param id the ID of the student.
+     * @return the student, or null if not registered.
+     */
+    public Student find(String id) {
+        int key = IdIndex.keyOf(id);
+        int slot = key < 0 ? -1 : slotOrMissing(key);
+        return slot < 0 ? null : new Student(this, slot);
+    }
+
+    /**
+     * Finds a student by ID and copies it out of the registry.
+     * Unlike find, the result does not change when other threads change the registry.
+     * @param id the ID of the student.
+     * @return a detached copy of the student, or null if not registered.
+     */
+    public Student copyOf(String id) {
+        int key = IdIndex.keyOf(id);
+        if (key < 0) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        Student copy = null;
+        try {
+            copy = copyOf(id, key);
+        } catch (RuntimeException e) {
+            // Read while a writer was moving things around; the stamp is invalid
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                copy = copyOf(id, key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Adds a student to the registry.
+     * The record is copied into the registry storage, so the given object stays detached.
+     * @param student the student to add.
+     * Checking the ID and adding happen atomically, so two threads registering the same ID
+     * cannot both succeed.
+     * @return true if added, false if the registry is full or the ID is already taken.
+     */
+    public boolean add(Student student) {
+        checkModules(student.getColumns().moduleCount());
+        long stamp = lock.writeLock();
+        try {
+            if (!reserveSlot(student.getIdKey())) {
+                return false;
+            }
+            columns.copyFrom(size, student.getColumns(), student.getSlot());
+            addToIndexes(student.getIdKey());
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a student to the registry without creating a Student object first.
+     * @param key the int key of the student ID.
+     * @param name the student name.
+     * @param marks the module marks, one per module.
+     * @return true if added, false if the registry is full or the ID is already taken.
+     */
+    boolean add(int key, String name, double[] marks) {
+        checkModules(marks.length);
+        long stamp = lock.writeLock();
+        try {
+            if (!reserveSlot(key)) {
+                return false;
+            }
+            columns.set(size, key, name);
+            for (int m = 0; m < marks.length; m++) {
+                columns.setMark(m, size, marks[m]);
+            }
+            addToIndexes(key);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a student by ID.
+     * The last student is moved into the freed slot.
+     * @param id the ID of the student to remove.
+     * @return a detached copy of the removed student, or null if not registered.
+     */
+    public Student remove(String id) {
+        int key = IdIndex.keyOf(id);
+        if (key < 0) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            return remove(id, key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Student remove(String id, int key) {
+        if (!idIndex.contains(key)) {
+            return null;
+        }
+        finishBulkLoad();
+        rankIndex.remove(key);
+        nameIndex.remove(key);
+        int slot = idIndex.remove(key);
+        aggregates.remove(columns, slot);
+        if (gramIndex != null) {
+            gramIndex.remove(key, columns.nameKey(slot));
+        }
+        Student removed = new Student(id, columns.name(slot), columns.moduleCount());
+        removed.getColumns().copyFrom(0, columns, slot);
+        int last = size - 1;
+        if (slot != last) {
+            columns.copyFrom(slot, columns, last);
+            idIndex.put(columns.idKey(slot), slot);
+        }
+        columns.clear(last);
+        size--;
+        for (Listener listener : listeners) {
+            listener.removed(key);
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces all marks of a registered student and repositions it in the rank index.
+     * @param key the int key of the student ID.
+     * @param marks the new marks, one per module.
+     */
+    void setModuleMarks(int key, double[] marks) {
+        checkModules(marks.length);
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(key);
+            boolean indexed = isIndexed(slot);
+            if (indexed) {
+                rankIndex.remove(key);
+                aggregates.remove(columns, slot);
+            }
+            for (int m = 0; m < marks.length; m++) {
+                columns.setMark(m, slot, marks[m]);
+            }
+            if (indexed) {
+                aggregates.add(columns, slot);
+                rankIndex.insert(key);
+            }
+            for (Listener listener : listeners) {
+                listener.marksChanged(key, columns, slot);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces one mark of a registered student and repositions it in the rank index.
+     * @param key the int key of the student ID.
+     * @param module module number starting at 0.
+     * @param mark the new mark.
+     */
+    void setMark(int key, int module, double mark) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(key);
+            boolean indexed = isIndexed(slot);
+            if (indexed) {
+                rankIndex.remove(key);
+                aggregates.remove(columns, slot);
+            }
+            columns.setMark(module, slot, mark);
+            if (indexed) {
+                aggregates.add(columns, slot);
+                rankIndex.insert(key);
+            }
+            for (Listener listener : listeners) {
+                listener.marksChanged(key, columns, slot);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces the name of a registered student.
+     * @param key the int key of the student ID.
+     * @param name the new name.
+     */
+    void setStudentName(int key, String name) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = slotOf(key);
+            boolean indexed = isIndexed(slot);
+            if (indexed) {
+                nameIndex.remove(key);
+            }
+            if (gramIndex != null) {
+                gramIndex.remove(key, columns.nameKey(slot));
+            }
+            columns.setName(slot, name);
+            if (indexed) {
+                nameIndex.insert(key);
+            }
+            if (gramIndex != null) {
+                gramIndex.add(key, columns.nameKey(slot));
+            }
+            for (Listener listener : listeners) {
+                listener.renamed(key, name);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies the running totals over every registered student.
+     * @return the totals at this point in time.
+     */
+    CohortAggregates aggregates() {
+        long stamp = readIndexed();
+        try {
+            return aggregates.copy();
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Recomputes the running totals from scratch and compares them with the maintained ones.
+     * Meant for assert statements, so the scan only runs with assertions enabled (-ea).
+     * @return true if they match.
+     * @throws AssertionError describing the first difference.
+     */
+    boolean verifyAggregates() {
+        String difference;
+        long stamp = readIndexed();
+        try {
+            difference = aggregates.difference(CohortAggregates.compute(columns, size));
+        } finally {
+            lock.unlock(stamp);
+        }
+        if (difference != null) {
+            throw new AssertionError("Cohort totals out of date: " + difference);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the position of a student when ordered by average marks, highest first.
+     * Students with the same average are ordered by ID.
+     * @param id the ID of the student.
+     * @return rank starting at 1, or 0 if the student is not registered.
+     */
+    public int rankOf(String id) {
+        int key = IdIndex.keyOf(id);
+        if (key < 0) {
+            return 0;
+        }
+        long stamp = readIndexed();
+        try {
+            return !idIndex.contains(key) ? 0 : rankIndex.rank(key) + 1;
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Visits students in rank order, highest average first.
+     * @param from number of students to skip.
+     * @param count maximum number of students to visit.
+     * @param action called with a view of each student, under the read lock; it must not change the registry.
+     */
+    public void forEachByRank(int from, int count, Consumer<Student> action) {
+        long stamp = readIndexed();
+        try {
+            rankIndex.forEach(from, count, key -> action.accept(new Student(this, idIndex.get(key))));
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Visits students in name order, ignoring case.
+     * Students with the same name are ordered by ID.
+     * @param from number of students to skip.
+     * @param count maximum number of students to visit.
+     * @param action called with a view of each student, under the read lock; it must not change the registry.
+     */
+    public void forEachByName(int from, int count, Consumer<Student> action) {
+        long stamp = readIndexed();
+        try {
+            nameIndex.forEach(from, count, key -> action.accept(new Student(this, idIndex.get(key))));
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Visits the students whose name starts with a text, ignoring case, in name order.
+     * Runs in O(log n + count), however many names match.
+     * @param prefix the start of the name.
+     * @param from number of matching students to skip.
+     * @param count maximum number of students to visit.
+     * @param action called with a view of each student, under the read lock; it must not change the registry.
+     * @return the number of students whose name starts with the text.
+     */
+    public int forEachNameStartingWith(String prefix, int from, int count, Consumer<Student> action) {
+        String text = StudentColumns.collationKey(prefix);
+        long low = StudentColumns.namePrefix(text, (char) 0);
+        long high = StudentColumns.namePrefix(text, Character.MAX_VALUE);
+        long stamp = readIndexed();
+        try {
+            int first = nameIndex.countBefore((keyPrefix, key) -> Long.compareUnsigned(keyPrefix, low) < 0
+                    || (keyPrefix == low && nameKeyOf(key).compareTo(text) < 0));
+            int end = nameIndex.countBefore((keyPrefix, key) -> Long.compareUnsigned(keyPrefix, low) < 0
+                    || (Long.compareUnsigned(keyPrefix, high) <= 0
+                            && (nameKeyOf(key).compareTo(text) < 0 || nameKeyOf(key).startsWith(text))));
+            if (from >= 0 && from < end - first) {
+                nameIndex.forEach(first + from, Math.min(count, end - first - from),
+                        key -> action.accept(new Student(this, idIndex.get(key))));
+            }
+            return end - first;
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Visits the students whose name contains a text, ignoring case, in name order.
+     * Texts of NameGramIndex.GRAM characters or more are looked up in the gram index, so the
+     * time depends on the number of names sharing the rarest gram of the text rather than on
+     * the cohort size. Shorter texts scan every name; they match most names anyway.
+     * @param text the text to look for.
+     * @param from number of matching students to skip.
+     * @param count maximum number of students to visit.
+     * @param action called with a view of each student, under the lock; it must not change the registry.
+     * @return the number of students whose name contains the text.
+     */
+    public int forEachNameContaining(String text, int from, int count, Consumer<Student> action) {
+        String folded = StudentColumns.collationKey(text);
+        long stamp = readIndexed();
+        try {
+            int[] slots;
+            int matches = 0;
+            if (folded.length() < NameGramIndex.GRAM) {
+                slots = new int[16];
+                for (int slot = 0; slot < size; slot++) {
+                    if (columns.nameKey(slot).contains(folded)) {
+                        if (matches == slots.length) {
+                            slots = java.util.Arrays.copyOf(slots, matches * 2);
+                        }
+                        slots[matches++] = slot;
+                    }
+                }
+            } else {
+                if (gramIndex == null) {
+                    stamp = toWriteLock(stamp);
+                    buildGramIndex();
+                }
+                slots = gramIndex.candidates(folded);
+                for (int key : slots) {
+                    int slot = idIndex.get(key);
+                    if (columns.nameKey(slot).contains(folded)) {
+                        slots[matches++] = slot; // Reuses the array, never ahead of the loop
+                    }
+                }
+            }
+            sortByName(slots, matches);
+            for (int i = Math.max(from, 0); i < matches && i - from < count; i++) {
+                action.accept(new Student(this, slots[i]));
+            }
+            return matches;
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Sorts slots in name order, the same order as the name index, using a bottom-up merge
+     * sort that reads the names straight from the columns.
+     */
+    private void sortByName(int[] slots, int count) {
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    buffer[k] = j >= hi || (i < mid && compareByName(slots[i], slots[j]) <= 0) ? slots[i++] : slots[j++];
+                }
+            }
+            System.arraycopy(buffer, 0, slots, 0, count);
+        }
+    }
+
+    private int compareByName(int slot1, int slot2) {
+        int cmp = columns.compareNameKeys(slot1, slot2);
+        return cmp != 0 ? cmp : Integer.compare(columns.idKey(slot1), columns.idKey(slot2));
+    }
+
+    /**
+     * Adds every registered student to a new gram index. Needs the write lock.
+     */
+    private void buildGramIndex() {
+        NameGramIndex index = new NameGramIndex();
+        for (int slot = 0; slot < size; slot++) {
+            index.add(columns.idKey(slot), columns.nameKey(slot));
+        }
+        gramIndex = index;
+    }
+
+    private String nameKeyOf(int key) {
+        return columns.nameKey(idIndex.get(key));
+    }
+
+    private boolean reserveSlot(int key) {
+        if (size >= capacity || idIndex.contains(key)) {
+            return false;
+        }
+        if (size == columns.rows()) {
+            grow();
+        }
+        return true;
+    }
+
+    private void addToIndexes(int key) {
+        if (unindexedFrom < 0) {
+            aggregates.add(columns, size);
+        }
+        idIndex.put(key, size);
+        if (gramIndex != null) {
+            gramIndex.add(key, columns.nameKey(size));
+        }
+        size++;
+        if (unindexedFrom < 0) {
+            rankIndex.insert(key);
+            nameIndex.insert(key);
+        }
+        for (Listener listener : listeners) {
+            listener.added(key, columns, size - 1);
+        }
+    }
+
+    /**
+     * Registers a listener that is told about every later change.
+     * Listeners are called while the write lock is held, in the order the changes are made,
+     * and must not call back into the registry.
+     * @param listener the listener to add.
+     */
+    void addListener(Listener listener) {
+        long stamp = lock.writeLock();
+        try {
+            listeners = java.util.Arrays.copyOf(listeners, listeners.length + 1);
+            listeners[listeners.length - 1] = listener;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Starts a bulk load. Students added until endBulkLoad is called are only put into the
+     * ID index; the rank and name indexes and the cohort totals are brought up to date in one
+     * pass at the end.
+     * The gram index is dropped, to be built again by the next substring search.
+     */
+    void beginBulkLoad() {
+        long stamp = lock.writeLock();
+        try {
+            if (unindexedFrom < 0) {
+                unindexedFrom = size;
+            }
+            gramIndex = null;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Ends a bulk load and adds the new students to the rank and name indexes.
+     * If many students were added, the indexes are rebuilt from sorted keys instead.
+     */
+    void endBulkLoad() {
+        long stamp = lock.writeLock();
+        try {
+            finishBulkLoad();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void finishBulkLoad() {
+        if (unindexedFrom < 0) {
+            return;
+        }
+        int from = unindexedFrom;
+        unindexedFrom = -1;
+        aggregates.addAll(columns, from, size);
+        if ((long) (size - from) * 8 >= size) {
+            int[] keys = new int[size];
+            for (int slot = 0; slot < size; slot++) {
+                keys[slot] = columns.idKey(slot);
+            }
+            rankIndex.rebuild(keys, size);
+            nameIndex.rebuild(keys, size);
+        } else {
+            for (int slot = from; slot < size; slot++) {
+                rankIndex.insert(columns.idKey(slot));
+                nameIndex.insert(columns.idKey(slot));
+            }
+        }
+    }
+
+    /**
+     * Checks if a slot is already in the rank and name indexes and the cohort totals.
+     * Slots added during a bulk load are not, and can be changed without touching them.
+     */
+    private boolean isIndexed(int slot) {
+        return unindexedFrom < 0 || slot < unindexedFrom;
+    }
+
+    /**
+     * Takes the read lock with the rank and name indexes up to date, finishing a bulk load
+     * under the write lock first if one is pending.
+     * @return the stamp to unlock.
+     */
+    private long readIndexed() {
+        long stamp = lock.readLock();
+        if (unindexedFrom >= 0) {
+            long writeStamp = lock.tryConvertToWriteLock(stamp);
+            if (writeStamp == 0) {
+                lock.unlockRead(stamp);
+                writeStamp = lock.writeLock();
+            }
+            stamp = writeStamp;
+            finishBulkLoad();
+        }
+        return stamp;
+    }
+
+    /**
+     * Turns a read or write stamp into a write stamp, waiting for the write lock if other
+     * threads are reading. The rank and name indexes are up to date afterwards.
+     * @return the write stamp to unlock.
+     */
+    private long toWriteLock(long stamp) {
+        long writeStamp = lock.tryConvertToWriteLock(stamp);
+        if (writeStamp != 0) {
+            return writeStamp;
+        }
+        lock.unlockRead(stamp);
+        writeStamp = lock.writeLock();
+        finishBulkLoad();
+        return writeStamp;
+    }
+
+    /**
+     * Looks up the slot of a key without locking, retrying under the read lock if a writer
+     * changed the registry during the lookup.
+     * @return the slot, or -1 if not registered.
+     */
+    private int slotOrMissing(int key) {
+        long stamp = lock.tryOptimisticRead();
+        int slot = -1;
+        try {
+            slot = idIndex.get(key);
+        } catch (RuntimeException e) {
+            // Read while a writer was moving things around; the stamp is invalid
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = idIndex.get(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return slot;
+    }
+
+    private Student copyOf(String id, int key) {
+        int slot = idIndex.get(key);
+        if (slot < 0) {
+            return null;
+        }
+        Student copy = new Student(id, columns.name(slot), columns.moduleCount());
+        copy.getColumns().copyFrom(0, columns, slot);
+        return copy;
+    }
+
+    private void checkModules(int modules) {
+        if (modules != columns.moduleCount()) {
+            throw new IllegalArgumentException("Expected " + columns.moduleCount() + " marks, got " + modules);
+        }
+    }
+
+    private int slotOf(int key) {
+        int slot = idIndex.get(key);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Student not registered: " + IdIndex.idOf(key));
+        }
+        return slot;
+    }
+
+    /**
+     * Orders students by average marks, highest first, then by ID.
+     * The prefix holds the whole total, so ties only need the IDs.
+     */
+    private class AverageOrder implements OrderedIdTree.KeyOrder {
+        @Override
+        public long prefix(int key) {
+            // Comparing totals gives the same order as comparing averages
+            long bits = Double.doubleToLongBits(columns.total(idIndex.get(key)));
+            long ascending = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+            return ~ascending;
+        }
+
+        @Override
+        public int compareTies(int key1, int key2) {
+            return Integer.compare(key1, key2);
+        }
+    }
+
+    /**
+     * Orders students by case-folded name, then by ID.
+     * The prefix holds the first four characters of the name.
+     */
+    private class NameOrder implements OrderedIdTree.KeyOrder {
+        @Override
+        public long prefix(int key) {
+            return columns.nameKeyPrefix(idIndex.get(key));
+        }
+
+        @Override
+        public int compareTies(int key1, int key2) {
+            int cmp = columns.compareNameKeys(idIndex.get(key1), idIndex.get(key2));
+            return cmp != 0 ? cmp : Integer.compare(key1, key2);
+        }
+    }
+
+    private void grow() {
+        columns.ensureRows((int) Math.min((long) columns.rows() * 2, capacity));
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses one line of student_details.txt straight from bytes.
+ * A line has the form ID,name,mark1,...,markN with one mark per module. The ID and marks are
+ * decoded without creating Strings; only the name is turned into a String.
+ * The parsed fields are left in the parser, which is reused for every line.
+ * <p>
+ * The file starts with a header line #modules=N. Files written before the number of modules
+ * could be changed have no header and DEFAULT_MODULES marks per line.
+ */
+class StudentRowParser {
+    static final int OK = 0;
+    static final int MALFORMED = 1;
+    static final int INVALID_ID = 2;
+    static final int INVALID_MARKS = 3;
+    static final int DUPLICATE = 4; // Not returned by parse: the loaders find the ID already registered
+
+    static final String HEADER_PREFIX = "#modules=";
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final int fields; // ID, name and the marks
+    private final int[] fieldStarts;
+    private final int[] fieldEnds;
+
+    int idKey;
+    String name;
+    final double[] marks;
+
+    /**
+     * Constructor to create a parser for lines with a number of marks.
+     * @param modules number of modules, and so of marks on each line.
+     */
+    StudentRowParser(int modules) {
+        fields = 2 + modules;
+        fieldStarts = new int[fields];
+        fieldEnds = new int[fields];
+        marks = new double[modules];
+    }
+
+    /**
+     * Reads the header line at the start of a file and checks it has the expected number of
+     * modules. A file without a header has DEFAULT_MODULES.
+     * @param buffer bytes from the start of the file, holding at least the whole first line
+     *               unless the file is shorter.
+     * @param end number of bytes in the buffer.
+     * @param modules the number of modules the caller expects.
+     * @return length of the header including its line terminator, or 0 if there is no header.
+     * @throws IOException if the header is invalid or gives a different number of modules.
+     */
+    static int headerLength(byte[] buffer, int end, int modules) throws IOException {
+        int fileModules = StudentColumns.DEFAULT_MODULES;
+        int length = 0;
+        if (startsWithHeader(buffer, end)) {
+            int lineEnd = HEADER_PREFIX.length();
+            while (lineEnd < end && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            length = lineEnd < end ? lineEnd + 1 : end;
+            if (lineEnd > 0 && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            String count = new String(buffer, HEADER_PREFIX.length(), lineEnd - HEADER_PREFIX.length(),
+                    StandardCharsets.US_ASCII);
+            try {
+                fileModules = Integer.parseInt(count);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid header: " + HEADER_PREFIX + count);
+            }
+        }
+        if (fileModules != modules && end > 0) { // An empty file suits any registry
+            throw new IOException("The file has " + fileModules + " modules but the registry has " + modules);
+        }
+        return length;
+    }
+
+    /**
+     * Reads the header line at the start of a file with positional reads and checks it has
+     * the expected number of modules.
+     * @param channel the file.
+     * @param modules the number of modules the caller expects.
+     * @return length of the header including its line terminator, or 0 if there is no header.
+     * @throws IOException if the file cannot be read, or the header is invalid or gives a
+     *                     different number of modules.
+     */
+    static int headerLength(FileChannel channel, int modules) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(64);
+        while (probe.hasRemaining() && channel.read(probe, probe.position()) > 0) {
+            // Read until the probe is full or the file ends
+        }
+        return headerLength(probe.array(), probe.position(), modules);
+    }
+
+    private static boolean startsWithHeader(byte[] buffer, int end) {
+        if (end < HEADER_PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_PREFIX.length(); i++) {
+            if (buffer[i] != HEADER_PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a line. Line terminators must already be excluded from the range.
+     * @param buffer bytes holding the line.
+     * @param start index of the first byte of the line.
+     * @param end index after the last byte of the line.
+     * @return OK, MALFORMED, INVALID_ID or INVALID_MARKS.
+     */
+    int parse(byte[] buffer, int start, int end) {
+        int status = split(buffer, start, end, fieldStarts, fieldEnds, 0);
+        return status == OK ? decode(buffer, fieldStarts, fieldEnds, 0) : status;
+    }
+
+    /**
+     * Finds the fields of a line without decoding them, the first half of parse.
+     * Line terminators must already be excluded from the range.
+     * @param buffer bytes holding the line.
+     * @param start index of the first byte of the line.
+     * @param end index after the last byte of the line.
+     * @param starts receives the index of the first byte of each field.
+     * @param ends receives the index after the last byte of each field.
+     * @param at index in starts and ends of the first field.
+     * @return OK or MALFORMED.
+     */
+    int split(byte[] buffer, int start, int end, int[] starts, int[] ends, int at) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        // Trailing empty fields are ignored, the same as String.split
+        while (end > start && buffer[end - 1] == ',') {
+            end--;
+        }
+
+        int found = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer[i] == ',') {
+                if (found == fields) {
+                    return MALFORMED;
+                }
+                starts[at + found] = fieldStart;
+                ends[at + found] = i;
+                found++;
+                fieldStart = i + 1;
+            }
+        }
+        return found == fields ? OK : MALFORMED;
+    }
+
+    /**
+     * Decodes the fields found by split into idKey, name and marks, the second half of parse.
+     * @param buffer bytes holding the line.
+     * @param starts index of the first byte of each field.
+     * @param ends index after the last byte of each field.
+     * @param at index in starts and ends of the first field.
+     * @return OK, INVALID_ID or INVALID_MARKS.
+     */
+    int decode(byte[] buffer, int[] starts, int[] ends, int at) {
+        idKey = parseId(buffer, starts[at], ends[at]);
+        if (idKey < 0) {
+            return INVALID_ID;
+        }
+        for (int m = 0; m < marks.length; m++) {
+            if (!parseMark(buffer, starts[at + 2 + m], ends[at + 2 + m], m)) {
+                return INVALID_MARKS;
+            }
+        }
+        name = new String(buffer, starts[at + 1], ends[at + 1] - starts[at + 1], StandardCharsets.UTF_8);
+        return OK;
+    }
+
+    /**
+     * Getter for the number of fields on a line.
+     * @return 2 plus the number of modules.
+     */
+    int fieldCount() {
+        return fields;
+    }
+
+    /**
+     * Decodes an ID in the wXXXXXXX format.
+     * @return the int key of the ID, or -1 if the format is wrong.
+     */
+    static int parseId(byte[] buffer, int start, int end) {
+        if (end - start != 8 || buffer[start] != 'w') {
+            return -1;
+        }
+        int key = 0;
+        for (int i = start + 1; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            key = key * 10 + digit;
+        }
+        return key;
+    }
+
+    /**
+     * Decodes a mark into marks[module]. Plain decimals with up to 15 digits are converted
+     * without creating a String; anything else is handed to Double.parseDouble.
+     * @return true if the field is a number.
+     */
+    private boolean parseMark(byte[] buffer, int start, int end, int module) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && digits <= 15) {
+            // Both values are exact doubles, so one division gives the correctly rounded result
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            marks[module] = negative ? -value : value;
+            return true;
+        }
+        try {
+            marks[module] = Double.parseDouble(new String(buffer, start, end - start, StandardCharsets.UTF_8));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
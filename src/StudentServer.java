@@ -0,0 +1,239 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the registry over a line-based TCP protocol on the loopback interface.
+ * A request is one command of StudentCommands, or PING or QUIT. Every request gets a response of
+ * <pre>
+ * output lines of FIND, SEARCH and REPORT, if any
+ * .OK                 or  .ERR message
+ * </pre>
+ * Output lines are sent as they are produced, so a report is never held whole in memory; an
+ * output line that starts with '.' gets another '.' in front, which the client removes.
+ * Clients may send many requests without waiting for the responses; they are answered in order.
+ * Responses are flushed, and the journal committed, once no more requests are waiting, so a
+ * pipelined run of changes costs one write and one commit. Nothing reaches the socket before
+ * the changes it answers are committed.
+ * Each connection runs on its own virtual thread (platform threads before Java 21). Lookups
+ * go to the shared registry, which only locks for changes.
+ */
+class StudentServer implements AutoCloseable {
+    static final int DEFAULT_PORT = 7070;
+    private static final int BACKLOG = 4096;
+
+    private final StudentRegistry registry;
+    private final MutationJournal journal;
+    private final StudentCommands commands;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+
+    /**
+     * Opens the server socket on 127.0.0.1.
+     *
+     * @param registry the registry to serve
+     * @param journal the journal to commit, or null when journaling is off
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    StudentServer(StudentRegistry registry, MutationJournal journal, int port) throws IOException {
+        this.registry = registry;
+        this.journal = journal;
+        this.commands = new StudentCommands(registry, false);
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Getter for the port the server listens on.
+     * @return the port.
+     */
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     * @throws IOException if accepting fails for another reason than closing
+     */
+    void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread.
+     * Virtual threads are only final from Java 21, so older runtimes get a pool of daemon
+     * platform threads instead.
+     * @return the executor.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until the client closes it or sends QUIT.
+     */
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     new CommittingOutputStream(socket.getOutputStream(), journal), StandardCharsets.UTF_8), 1 << 14)) {
+            socket.setTcpNoDelay(true);
+            DotStuffingWriter body = new DotStuffingWriter(out);
+            ReportWriter bodyWriter = new ReportWriter(body);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                String error = null;
+                if (line.equalsIgnoreCase("QUIT")) {
+                    out.write(".OK\n");
+                    break;
+                } else if (line.isEmpty()) {
+                    error = "Empty request";
+                } else if (!line.equalsIgnoreCase("PING")) {
+                    error = commands.execute(line, bodyWriter);
+                    bodyWriter.flush();
+                    body.endLine();
+                }
+                out.write(error == null ? ".OK\n" : ".ERR " + error + "\n");
+                if (!in.ready()) {
+                    // No more pipelined requests: make the changes durable, then answer
+                    if (journal != null) {
+                        journal.commit();
+                    }
+                    out.flush();
+                }
+            }
+            if (journal != null) {
+                journal.commit();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to answer
+        }
+    }
+
+    /**
+     * Passes the output lines of a command on to the connection, doubling a '.' at the start
+     * of a line so that no output line can be taken for the trailer.
+     * Flushing does nothing: the connection is flushed once no more requests are waiting.
+     */
+    private static final class DotStuffingWriter extends Writer {
+        private final Writer out;
+        private boolean lineStart = true;
+
+        DotStuffingWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (lineStart && chars[i] == '.') {
+                    out.write(chars, start, i - start);
+                    out.write('.');
+                    start = i;
+                }
+                lineStart = chars[i] == '\n';
+            }
+            out.write(chars, start, end - start);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            char[] chars = new char[length];
+            text.getChars(offset, offset + length, chars, 0);
+            write(chars, 0, length);
+        }
+
+        /**
+         * Ends an output line left open, so the trailer starts a line of its own.
+         * @throws IOException if the connection fails.
+         */
+        void endLine() throws IOException {
+            if (!lineStart) {
+                out.write('\n');
+                lineStart = true;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Commits the journal before any bytes go out, so a response pushed out early by a full
+     * buffer never acknowledges a change that could still be lost.
+     */
+    private static final class CommittingOutputStream extends FilterOutputStream {
+        private final MutationJournal journal;
+
+        CommittingOutputStream(OutputStream out, MutationJournal journal) {
+            super(out);
+            this.journal = journal;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            commit();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            commit();
+            out.write(bytes, offset, length);
+        }
+
+        private void commit() throws IOException {
+            if (journal != null) {
+                journal.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Student details saved as several shard files, so saving and loading use every core and can
+ * be spread over several disks.
+ * Each student goes to the shard picked by a hash of its ID. A shard is an ordinary student
+ * file with its header line, which StudentFileLoader can also load on its own. The shards are
+ * given to the directories in turn, and are written and read in parallel on a ForkJoinPool.
+ * <p>
+ * A manifest in the first directory lists the shards with their number of students, size
+ * and CRC-32:
+ * <pre>
+ * version=1
+ * modules=4
+ * partition=id-hash
+ * generation=7
+ * shards=2
+ * shard.0=rows,bytes,crc32,path
+ * shard.1=rows,bytes,crc32,path
+ * </pre>
+ * Paths are relative to the directory of the manifest. The shards of each save are named
+ * after its generation, so they never replace the shards the current manifest lists; the new
+ * manifest is moved into place last and only then are the previous shards deleted.
+ * A load checks each shard against its size and checksum before adding its students, and
+ * does not depend on the number of shards or directories it is given for saving, so loading
+ * and saving again re-shards the details.
+ */
+class StudentShards {
+    static final String MANIFEST_NAME = "shards.manifest";
+    static final int VERSION = 1;
+    private static final String PARTITION = "id-hash"; // The only partitioning so far, see shardOf
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Saves every registered student to shards using the common ForkJoinPool.
+     *
+     * @param registry the registry to save
+     * @param shards number of shard files
+     * @param directories where the shards go, in turn; the manifest goes in the first
+     * @return the number of students saved
+     * @throws IOException if a shard or the manifest cannot be written
+     */
+    static int save(StudentRegistry registry, int shards, List<Path> directories) throws IOException {
+        return save(registry, shards, directories, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Saves every registered student to shards.
+     * The students are copied first, so the registry can change while the shards are written.
+     *
+     * @param registry the registry to save
+     * @param shards number of shard files
+     * @param directories where the shards go, in turn; the manifest goes in the first
+     * @param pool the pool that writes the shards
+     * @return the number of students saved
+     * @throws IOException if a shard or the manifest cannot be written
+     */
+    static int save(StudentRegistry registry, int shards, List<Path> directories, ForkJoinPool pool)
+            throws IOException {
+        if (shards <= 0 || directories.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard and one directory are needed");
+        }
+        StudentColumns columns = registry.copyColumns();
+        int count = columns.rows();
+
+        // Group the slots by shard, keeping the registration order within each shard
+        int[] starts = new int[shards + 1];
+        for (int slot = 0; slot < count; slot++) {
+            starts[shardOf(columns.idKey(slot), shards) + 1]++;
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            starts[shard + 1] += starts[shard];
+        }
+        int[] slots = new int[count];
+        int[] next = starts.clone();
+        for (int slot = 0; slot < count; slot++) {
+            slots[next[shardOf(columns.idKey(slot), shards)]++] = slot;
+        }
+
+        for (Path directory : directories) {
+            Files.createDirectories(directory);
+        }
+        Path manifestFile = directories.get(0).resolve(MANIFEST_NAME);
+        Manifest previous = null;
+        if (Files.exists(manifestFile)) {
+            try {
+                previous = Manifest.read(manifestFile);
+            } catch (IOException e) {
+                // Its shards cannot be known, so they are left where they are
+            }
+        }
+        Manifest manifest = new Manifest(columns.moduleCount(), previous == null ? 1 : previous.generation + 1);
+
+        List<ForkJoinTask<Shard>> tasks = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Path file = directories.get(shard % directories.size())
+                    .resolve("student_details-" + manifest.generation + "-" + shard + ".txt");
+            int from = starts[shard];
+            int to = starts[shard + 1];
+            tasks.add(pool.submit(() -> writeShard(columns, slots, from, to, file)));
+        }
+        IOException error = null;
+        for (ForkJoinTask<Shard> task : tasks) {
+            Shard shard = task.join();
+            if (shard.error != null && error == null) {
+                error = shard.error;
+            }
+            manifest.shards.add(shard);
+        }
+        try {
+            if (error != null) {
+                throw error;
+            }
+            manifest.write(manifestFile);
+        } catch (IOException | RuntimeException e) {
+            deleteShards(manifest.shards); // Of no use without their manifest
+            throw e;
+        }
+
+        if (previous != null) {
+            deleteShards(previous.shards);
+        }
+        return count;
+    }
+
+    /**
+     * Deletes shard files that no manifest lists, as far as they can be deleted.
+     */
+    private static void deleteShards(List<Shard> shards) {
+        for (Shard shard : shards) {
+            try {
+                Files.deleteIfExists(shard.file);
+            } catch (IOException e) {
+                // A leftover shard is harmless once no manifest lists it
+            }
+        }
+    }
+
+    /**
+     * Loads the shards a manifest lists into the registry using the common ForkJoinPool.
+     *
+     * @param directory the directory holding the manifest
+     * @param registry the registry to load into
+     * @return counts of loaded and rejected students
+     * @throws IOException if the manifest or a shard cannot be read or does not match
+     */
+    static LoadSummary load(Path directory, StudentRegistry registry) throws IOException {
+        return load(directory, registry, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads the shards a manifest lists into the registry.
+     * Shards are read, checked and parsed in parallel, then added to the registry one at a time
+     * in manifest order, with only a small window of shards in memory at once. Rejected lines
+     * are only counted, as line numbers of a shard would not lead back to a file the user
+     * wrote. The summary counts two stages like ParallelStudentLoader: parse and insert.
+     *
+     * @param directory the directory holding the manifest
+     * @param registry the registry to load into
+     * @param pool the pool that reads the shards
+     * @return counts of loaded and rejected students
+     * @throws IOException if the manifest or a shard cannot be read, a shard does not match its
+     *                     checksum, or the shards have another number of modules than the registry
+     */
+    static LoadSummary load(Path directory, StudentRegistry registry, ForkJoinPool pool) throws IOException {
+        Manifest manifest = Manifest.read(directory.resolve(MANIFEST_NAME));
+        int modules = registry.moduleCount();
+        if (manifest.modules != modules) {
+            throw new IOException("The shards have " + manifest.modules + " modules but the registry has " + modules);
+        }
+        LoadSummary summary = new LoadSummary();
+        LoadSummary.Stage parse = summary.stage("parse");
+        LoadSummary.Stage insert = summary.stage("insert");
+        long start = System.nanoTime();
+
+        registry.beginBulkLoad();
+        try (RejectsWriter rejects = new RejectsWriter(null)) {
+            int window = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<ParallelStudentLoader.ParsedChunk>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            try {
+                while ((next < manifest.shards.size() || !inFlight.isEmpty()) && !summary.registryFull) {
+                    while (next < manifest.shards.size() && inFlight.size() < window) {
+                        Shard shard = manifest.shards.get(next++);
+                        inFlight.add(pool.submit(() -> readShard(shard, modules)));
+                    }
+                    ParallelStudentLoader.ParsedChunk chunk = inFlight.poll().join();
+                    if (chunk.error != null) {
+                        throw chunk.error;
+                    }
+                    parse.rows += chunk.lines;
+                    parse.rejected += chunk.rejected;
+                    parse.nanos += chunk.nanos;
+                    long mergeStart = System.nanoTime();
+                    ParallelStudentLoader.merge(chunk, 1, registry, summary, rejects, insert);
+                    insert.nanos += System.nanoTime() - mergeStart;
+                }
+            } finally {
+                // Stop the shards left after an error or a full registry, and wait for any already being read
+                for (ForkJoinTask<ParallelStudentLoader.ParsedChunk> task : inFlight) {
+                    task.cancel(false);
+                }
+                for (ForkJoinTask<ParallelStudentLoader.ParsedChunk> task : inFlight) {
+                    task.quietlyJoin();
+                }
+            }
+        } finally {
+            registry.endBulkLoad();
+        }
+
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Picks the shard of a student.
+     * The ID key is spread like IdIndex.bucketOf and scaled to the number of shards, so
+     * students registered with consecutive IDs are shared evenly among the shards.
+     */
+    private static int shardOf(int key, int shards) {
+        int h = key * 0x9E3779B9;
+        return (int) (((h ^ (h >>> 16)) & 0xFFFFFFFFL) * shards >>> 32);
+    }
+
+    /**
+     * Writes some rows of the storage to a shard file in the format of
+     * Main.writeStudentDetails, and forces them to the disk.
+     * @return the written shard, or the error in its error field
+     */
+    private static Shard writeShard(StudentColumns columns, int[] slots, int from, int to, Path file) {
+        Shard shard = new Shard(file);
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), crc),
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+            int modules = columns.moduleCount();
+            out.write(StudentRowParser.HEADER_PREFIX + modules + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                int slot = slots[i];
+                line.setLength(0);
+                line.append(IdIndex.idOf(columns.idKey(slot))).append(',').append(columns.name(slot));
+                for (int m = 0; m < modules; m++) {
+                    line.append(',').append(columns.mark(m, slot));
+                }
+                out.write(line.append('\n').toString());
+            }
+            out.flush(); // Closing the channel closes the streams around it
+            channel.force(true);
+            shard.rows = to - from;
+            shard.bytes = channel.size();
+            shard.crc = crc.getValue();
+        } catch (IOException e) {
+            shard.error = e;
+        }
+        return shard;
+    }
+
+    /**
+     * Reads a whole shard, checks it against the manifest and parses it.
+     * @return the parsed lines, or the error in the error field
+     */
+    private static ParallelStudentLoader.ParsedChunk readShard(Shard shard, int modules) {
+        long start = System.nanoTime();
+        ParallelStudentLoader.ParsedChunk chunk;
+        try {
+            if (shard.bytes > Integer.MAX_VALUE - 8) {
+                throw new IOException("Shard too large to load: " + shard.file);
+            }
+            byte[] bytes = Files.readAllBytes(shard.file);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            if (bytes.length != shard.bytes || crc.getValue() != shard.crc) {
+                throw new IOException("Shard does not match its checksum: " + shard.file);
+            }
+            chunk = ParallelStudentLoader.parse(bytes, StudentRowParser.headerLength(bytes, bytes.length, modules),
+                    modules);
+            if (chunk.lines != shard.rows) {
+                throw new IOException("Shard does not hold " + shard.rows + " students: " + shard.file);
+            }
+        } catch (NoSuchFileException e) {
+            chunk = new ParallelStudentLoader.ParsedChunk(modules);
+            chunk.error = new IOException("Missing shard: " + shard.file);
+        } catch (IOException e) {
+            chunk = new ParallelStudentLoader.ParsedChunk(modules);
+            chunk.error = e;
+        }
+        chunk.nanos = System.nanoTime() - start;
+        return chunk;
+    }
+
+    /**
+     * One shard file as listed in the manifest.
+     */
+    private static class Shard {
+        final Path file;
+        long rows;
+        long bytes;
+        long crc;
+        IOException error; // Set when the shard could not be written
+
+        Shard(Path file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * The layout of a save: its generation, number of modules and shards.
+     */
+    private static class Manifest {
+        final int modules;
+        final int generation;
+        final List<Shard> shards = new ArrayList<>();
+
+        Manifest(int modules, int generation) {
+            this.modules = modules;
+            this.generation = generation;
+        }
+
+        /**
+         * Writes the manifest under a temporary name and moves it into place, deleting the
+         * temporary file if that fails.
+         */
+        void write(Path file) throws IOException {
+            Path directory = file.toAbsolutePath().normalize().getParent();
+            StringBuilder text = new StringBuilder();
+            text.append("version=").append(VERSION).append('\n')
+                    .append("modules=").append(modules).append('\n')
+                    .append("partition=").append(PARTITION).append('\n')
+                    .append("generation=").append(generation).append('\n')
+                    .append("shards=").append(shards.size()).append('\n');
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i);
+                text.append("shard.").append(i).append('=').append(shard.rows).append(',').append(shard.bytes)
+                        .append(',').append(Long.toHexString(shard.crc)).append(',')
+                        .append(directory.relativize(shard.file.toAbsolutePath().normalize())).append('\n');
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    out.force(true);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (Throwable e) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Reads a manifest, resolving the shard paths against its directory.
+         */
+        static Manifest read(Path file) throws IOException {
+            Path directory = file.toAbsolutePath().normalize().getParent();
+            Map<String, String> values = new HashMap<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int equals = line.indexOf('=');
+                if (equals < 0) {
+                    throw new IOException("Corrupt shard manifest line: " + line);
+                }
+                values.put(line.substring(0, equals), line.substring(equals + 1));
+            }
+            if (number(values, "version") != VERSION) {
+                throw new IOException("Unsupported shard manifest version " + values.get("version"));
+            }
+            if (!PARTITION.equals(values.get("partition"))) {
+                throw new IOException("Unsupported shard partition " + values.get("partition"));
+            }
+            Manifest manifest = new Manifest((int) number(values, "modules"), (int) number(values, "generation"));
+            long shards = number(values, "shards");
+            for (int i = 0; i < shards; i++) {
+                String entry = values.get("shard." + i);
+                String[] fields = entry == null ? new String[0] : entry.split(",", 4);
+                if (fields.length != 4) {
+                    throw new IOException("Corrupt shard manifest entry shard." + i);
+                }
+                Shard shard = new Shard(directory.resolve(fields[3]));
+                try {
+                    shard.rows = Long.parseLong(fields[0]);
+                    shard.bytes = Long.parseLong(fields[1]);
+                    shard.crc = Long.parseLong(fields[2], 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupt shard manifest entry shard." + i);
+                }
+                manifest.shards.add(shard);
+            }
+            return manifest;
+        }
+
+        private static long number(Map<String, String> values, String key) throws IOException {
+            try {
+                return Long.parseLong(values.get(key));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt shard manifest: invalid or missing " + key);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of the registry.
+ * The file starts with a header, followed by fixed-width records sorted by ID and a heap
+ * holding the names:
+ * <pre>
+ * header:  magic, version, module count, record count, record size, name heap offset (long),
+ *          first journal segment not included in the snapshot (version 2)
+ * record:  ID key (int), name offset in the heap (int), one double per module
+ * heap:    for each name, its UTF-8 length (int) and bytes
+ * </pre>
+ * An opened snapshot is memory-mapped. Students can be looked up by ID straight from the
+ * mapping, by binary search over the records, while the snapshot is copied into the registry.
+ */
+class StudentSnapshot implements AutoCloseable {
+    static final int MAGIC = 0x534D5353; // "SMSS"
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_KEY = 9_999_999; // Largest key of a wXXXXXXX ID
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int moduleCount;
+    private final int recordCount;
+    private final int recordSize;
+    private final long heapOffset;
+    private final int journalSegment;
+
+    private StudentSnapshot(FileChannel channel, MappedByteBuffer map) throws IOException {
+        this.channel = channel;
+        this.map = map;
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+            throw new IOException("Not a student snapshot file");
+        }
+        int version = map.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        moduleCount = map.getInt(8);
+        recordCount = map.getInt(12);
+        recordSize = map.getInt(16);
+        heapOffset = map.getLong(20);
+        journalSegment = version >= 2 ? map.getInt(28) : 0;
+        if (moduleCount <= 0 || recordCount < 0 || recordSize != 8 + 8L * moduleCount
+                || heapOffset != HEADER_SIZE + (long) recordCount * recordSize || heapOffset > map.capacity()) {
+            throw new IOException("Corrupt snapshot header");
+        }
+    }
+
+    /**
+     * Writes every registered student to a snapshot file.
+     * The file is written under a temporary name and then moved into place, so an existing
+     * snapshot is never left half written. The temporary file is deleted if writing fails.
+     *
+     * @param registry the registry to save
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    static void write(StudentRegistry registry, Path file) throws IOException {
+        StudentColumns copy = registry.copyColumns();
+        write(copy, copy.rows(), file, 0);
+    }
+
+    /**
+     * Writes the first rows of columnar storage to a snapshot file.
+     *
+     * @param columns the storage to save
+     * @param count number of rows to save
+     * @param file the snapshot file
+     * @param journalSegment first journal segment whose changes are not in the storage
+     * @throws IOException if the file cannot be written
+     */
+    static void write(StudentColumns columns, int count, Path file, int journalSegment) throws IOException {
+        int modules = columns.moduleCount();
+        int recordSize = 8 + 8 * modules;
+
+        // Records are written in ID order, as the format specifies
+        long[] order = new long[count];
+        for (int slot = 0; slot < count; slot++) {
+            order[slot] = ((long) columns.idKey(slot) << 32) | slot;
+        }
+        Arrays.sort(order);
+
+        long heapOffset = HEADER_SIZE + (long) count * recordSize;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                // Records and names are written in one pass through two buffers at their own positions
+                ByteBuffer records = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                ByteBuffer heap = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                long recordsPosition = 0;
+                long heapPosition = heapOffset;
+                records.putInt(MAGIC).putInt(VERSION).putInt(modules).putInt(count).putInt(recordSize)
+                        .putLong(heapOffset).putInt(journalSegment);
+
+                long heapSize = 0;
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) order[i];
+                    byte[] name = columns.name(slot).getBytes(StandardCharsets.UTF_8);
+                    if (heapSize > Integer.MAX_VALUE) {
+                        throw new IOException("Too many names for one snapshot");
+                    }
+                    if (records.remaining() < recordSize) {
+                        recordsPosition = drain(records, out, recordsPosition);
+                    }
+                    records.putInt(columns.idKey(slot)).putInt((int) heapSize);
+                    for (int m = 0; m < modules; m++) {
+                        records.putDouble(columns.mark(m, slot));
+                    }
+
+                    if (heap.remaining() < 4 + name.length) {
+                        heapPosition = drain(heap, out, heapPosition);
+                    }
+                    if (heap.remaining() < 4 + name.length) {
+                        // Longer than the whole buffer
+                        out.write(ByteBuffer.allocate(4 + name.length).putInt(name.length).put(name).flip(), heapPosition);
+                        heapPosition += 4 + name.length;
+                    } else {
+                        heap.putInt(name.length).put(name);
+                    }
+                    heapSize += 4 + name.length;
+                }
+                drain(records, out, recordsPosition);
+                drain(heap, out, heapPosition);
+                out.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Throwable e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a snapshot file by memory-mapping it.
+     *
+     * @param file the snapshot file
+     * @return the opened snapshot, which must be closed
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static StudentSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + channel.size() + " bytes");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StudentSnapshot(channel, map);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Getter for the number of students in the snapshot.
+     * @return number of students.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Getter for the first journal segment whose changes are not in the snapshot.
+     * @return journal segment number, 0 for snapshots written without a journal.
+     */
+    public int journalSegment() {
+        return journalSegment;
+    }
+
+    /**
+     * Finds a student by binary search over the records, without loading the snapshot.
+     *
+     * @param id the ID of the student
+     * @return a copy of the student, or null if the snapshot does not hold the ID
+     * @throws IOException if the record of the student is corrupt
+     */
+    public Student find(String id) throws IOException {
+        int key = IdIndex.keyOf(id);
+        int low = 0;
+        int high = recordCount - 1;
+        while (key >= 0 && low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = map.getInt(recordOffset(mid));
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                Student student = new Student(id, nameOf(mid), moduleCount);
+                double[] marks = new double[moduleCount];
+                for (int m = 0; m < moduleCount; m++) {
+                    marks[m] = map.getDouble(recordOffset(mid) + 8 + 8 * m);
+                }
+                student.setModuleMarks(marks);
+                return student;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies every student of the snapshot into the registry.
+     * Students whose ID is already registered are skipped.
+     *
+     * @param registry the registry to load into
+     * @return counts of loaded and skipped students
+     * @throws IOException if the snapshot has another number of modules than the registry, or
+     *         a record is corrupt; the students before it stay loaded
+     */
+    public LoadSummary loadInto(StudentRegistry registry) throws IOException {
+        if (moduleCount != registry.moduleCount()) {
+            throw new IOException("The snapshot has " + moduleCount + " modules but the registry has "
+                    + registry.moduleCount());
+        }
+        LoadSummary summary = new LoadSummary();
+        long start = System.nanoTime();
+        double[] marks = new double[moduleCount];
+        registry.beginBulkLoad();
+        try {
+            for (int i = 0; i < recordCount; i++) {
+                if (registry.isFull()) {
+                    summary.registryFull = true;
+                    break;
+                }
+                int offset = recordOffset(i);
+                int key = map.getInt(offset);
+                if (key < 0 || key > MAX_KEY) {
+                    throw corrupt(i);
+                }
+                String name = nameOf(i);
+                for (int m = 0; m < moduleCount; m++) {
+                    marks[m] = map.getDouble(offset + 8 + 8 * m);
+                }
+                summary.rows++;
+                if (registry.add(key, name, marks)) {
+                    summary.loaded++;
+                } else {
+                    summary.duplicates++;
+                }
+            }
+        } finally {
+            registry.endBulkLoad();
+        }
+        summary.bytes = map.capacity();
+        summary.nanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    /**
+     * Closes the file. The mapping is released when it is garbage collected.
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int recordOffset(int record) {
+        return HEADER_SIZE + record * recordSize;
+    }
+
+    /**
+     * Reads the name of a record from the heap.
+     * @throws IOException if the name does not lie within the file
+     */
+    private String nameOf(int record) throws IOException {
+        int nameOffset = map.getInt(recordOffset(record) + 4);
+        long position = heapOffset + nameOffset + 4;
+        if (nameOffset < 0 || position > map.capacity()) {
+            throw corrupt(record);
+        }
+        int length = map.getInt((int) position - 4);
+        if (length < 0 || length > map.capacity() - position) {
+            throw corrupt(record);
+        }
+        byte[] bytes = new byte[length];
+        map.get((int) position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static IOException corrupt(int record) {
+        return new IOException("Corrupt snapshot record " + record);
+    }
+
+    /**
+     * Writes the contents of a buffer at a file position and empties the buffer.
+     * @return the position after the written bytes
+     */
+    private static long drain(ByteBuffer buffer, FileChannel out, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+}